@@ -0,0 +1,150 @@
+package PageManager;
+
+import Pages.Page;
+
+import java.lang.invoke.VarHandle;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Name of class: ChainPrefetcher
+ * <p>
+ * Description: Reads ahead the pages of a chain that a thread walks, so the walk finds them cached.
+ * A thread that loads the next page of a page it loaded just before, twice in a row, is walking a chain:
+ * the pages after it are loaded on a small pool of background threads, a window at a time.
+ * The page in the middle of a window is a trigger, a walk that reaches it starts the next window,
+ * and a walk that still misses a page starts one from there.
+ * <p>
+ * Prefetched pages enter the cache like the pages of a scan, so they don't push out the frequently used ones.
+ * The prefetcher holds none of the pages, it reads their link to the next page only while they are still cached:
+ * under the page lock for a page just read, without any lock for a cache hit.
+ * <p>
+ * Version: 1.0
+ * <p>
+ * Date 10/18
+ * <p>
+ * Copyright: Semenov Egor
+ */
+
+public class ChainPrefetcher {
+    private static final int maxWindowPages = 32;
+    private static final int trackedChains = 8; // chains followed at once by one thread, an object page and its attribute pages
+    private static final int maxTriggers = 1024; // walks that stopped early leave their trigger behind
+
+    private final MemoryManager memoryManager;
+    private final int windowPages;
+    private final ExecutorService pool;
+    private final ConcurrentHashMap<Integer, Integer> triggers = new ConcurrentHashMap<>(); // page -> last page of its window
+    // Per thread: next page of each page loaded lately -> chain steps that led to that page
+    private final ThreadLocal<Map<Integer, Integer>> expectedPages = ThreadLocal.withInitial(() -> new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+            return this.size() > trackedChains;
+        }
+    });
+
+    /**
+     * @param cachePages size of the cache, a window takes at most an eighth of it
+     * @param threads number of background threads reading pages
+     */
+    public ChainPrefetcher(MemoryManager memoryManager, int cachePages, int threads) {
+        this.memoryManager = memoryManager;
+        this.windowPages = Math.min(maxWindowPages, cachePages / 8);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "page-prefetch-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Called for each page a thread asked for
+     * @param missed the page was read from the file
+     */
+    public void pageLoaded(Page page, boolean missed) {
+        if (this.windowPages < 2) return;
+        int pageNumber = page.getPageNumber();
+        Integer windowEnd = this.triggers.remove(pageNumber);
+        if (windowEnd != null) this.submit(windowEnd);
+
+        Map<Integer, Integer> expected = this.expectedPages.get();
+        Integer steps = expected.remove(pageNumber);
+        steps = (steps == null) ? 0 : steps + 1;
+        int nextPage = missed ? ChainPrefetcher.nextPageOf(page) : ChainPrefetcher.nextPageOfHit(page);
+        if (nextPage > 0) expected.put(nextPage, steps);
+        if (steps == 1 || (steps > 1 && missed && windowEnd == null)) this.submit(pageNumber);
+    }
+
+    /**
+     * Stops the background threads, must be called before the store is closed
+     */
+    public void stop() {
+        this.pool.shutdownNow();
+        try {
+            this.pool.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Next page of a page nobody acquired for the prefetcher, read while the page is still cached:
+     * its frame is reused only after the page is marked evicted, which is done under the page lock
+     * @return -1 if the page was evicted
+     */
+    private static int nextPageOf(Page page) {
+        page.lock();
+        try {
+            return page.isEvicted() ? -1 : page.getNextPage();
+        } finally {
+            page.unlock();
+        }
+    }
+
+    /**
+     * Same for a cache hit without taking the page lock, so hits stay lock-free: the link is read first,
+     * then the page is checked to be still cached, a frame reused meanwhile is marked evicted before it is written
+     * @return -1 if the page was evicted
+     */
+    private static int nextPageOfHit(Page page) {
+        int nextPage = page.getNextPage();
+        VarHandle.acquireFence(); // the link is read before the eviction flag
+        return page.isEvicted() ? -1 : nextPage;
+    }
+
+    private void submit(int fromPage) {
+        try {
+            this.pool.execute(() -> this.prefetchAfter(fromPage));
+        } catch (RejectedExecutionException e) {
+            // stopped, the walk reads its pages itself
+        }
+    }
+
+    /**
+     * Loads the pages of the chain that follow the given page, which is cached already
+     */
+    private void prefetchAfter(int fromPage) {
+        try {
+            Page page = this.memoryManager.prefetchPage(fromPage);
+            int trigger = -1;
+            for (int i = 1; i <= this.windowPages && !Thread.currentThread().isInterrupted(); i++) {
+                int nextPage = ChainPrefetcher.nextPageOf(page);
+                if (nextPage <= 0) return; // end of the chain, or the page is gone
+                page = this.memoryManager.prefetchPage(nextPage);
+                if (i == this.windowPages / 2) trigger = nextPage;
+            }
+            if (trigger == -1) return;
+            if (this.triggers.size() >= maxTriggers) this.triggers.clear();
+            this.triggers.put(trigger, page.getPageNumber());
+        } catch (RuntimeException e) {
+            // the chain changed under the walk (a page was freed or is out of the file), the walk will find out
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package PageManager;
+
+import Pages.Page;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Name of class: FilePageStore
+ * <p>
+ * Description: Reads and writes pages through a single FileChannel kept open for the whole life of the database.
+ * All transfers are positional, so several threads can load and save pages at the same time without sharing a file cursor.
+ * Asynchronous loads go through an AsynchronousFileChannel opened on the same file, the caller gets a future at once.
+ * <p>
+ * Version: 1.0
+ * <p>
+ * Date 10/18
+ * <p>
+ * Copyright: Semenov Egor
+ */
+
+public class FilePageStore implements MemoryManager.PageStore {
+    private static final long minGrowth = 1024 * 1024;
+    private final int pageSize;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final AsynchronousFileChannel asyncChannel; // read only, the writes keep going through the channel
+
+    // File length is cached to avoid asking the OS on every allocation
+    private volatile long fileLength;
+    private final Lock expandLock = new ReentrantLock();
+    private final Lock runLock = new ReentrantLock(); // gathering writes go through the channel position
+
+    public FilePageStore(String filePath){
+        this(filePath, Page.defaultPageSize);
+    }
+
+    public FilePageStore(String filePath, int pageSize){
+        this.pageSize = pageSize;
+        try {
+            this.file = new RandomAccessFile(filePath, "rw");
+            this.channel = this.file.getChannel();
+            this.asyncChannel = AsynchronousFileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+            this.fileLength = this.channel.size();
+        } catch (IOException e) { throw new RuntimeException("Error opening page file: ", e); }
+    }
+
+    @Override
+    public ByteBuffer load(int pageIndex, ByteBuffer frame) {
+        ByteBuffer buffer = (frame != null) ? frame.clear() : ByteBuffer.allocate(this.pageSize);
+        long position = (long) pageIndex * this.pageSize;
+        try {
+            while (buffer.hasRemaining()) {
+                int read = this.channel.read(buffer, position + buffer.position());
+                if (read < 0) break;
+            }
+            while (buffer.hasRemaining()) buffer.put((byte) 0); // past the end of file the page reads as empty
+            buffer.clear();
+            return buffer;
+        } catch (IOException e) { throw new RuntimeException("Error loading file page: ", e); }
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> loadAsync(int pageIndex, ByteBuffer frame) {
+        ByteBuffer buffer = (frame != null) ? frame.clear() : ByteBuffer.allocate(this.pageSize);
+        CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+        this.readAsync(buffer, (long) pageIndex * this.pageSize, result);
+        return result;
+    }
+
+    /**
+     * Reads the rest of the page, again from the completion of a short read
+     */
+    private void readAsync(ByteBuffer buffer, long position, CompletableFuture<ByteBuffer> result) {
+        try {
+            this.asyncChannel.read(buffer, position + buffer.position(), null, new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer read, Void attachment) {
+                    if (read >= 0 && buffer.hasRemaining()) {
+                        FilePageStore.this.readAsync(buffer, position, result);
+                        return;
+                    }
+                    while (buffer.hasRemaining()) buffer.put((byte) 0); // past the end of file the page reads as empty
+                    result.complete(buffer.clear());
+                }
+
+                @Override
+                public void failed(Throwable e, Void attachment) {
+                    result.completeExceptionally(new RuntimeException("Error loading file page: ", e));
+                }
+            });
+        } catch (RuntimeException e) {
+            result.completeExceptionally(new RuntimeException("Error loading file page: ", e));
+        }
+    }
+
+    @Override
+    public void save(int pageIndex, ByteBuffer data) {
+        // The page may be used by another thread, so its cursor is never touched
+        ByteBuffer source = data.duplicate();
+        source.clear();
+        long position = (long) pageIndex * this.pageSize;
+        try {
+            while (source.hasRemaining()) {
+                this.channel.write(source, position + source.position());
+            }
+        } catch (IOException e) { throw new RuntimeException("Error saving file page: ", e); }
+    }
+
+    /**
+     * Writes the pages with one gathering write, as a single sequential I/O
+     */
+    @Override
+    public void saveRun(int firstPageIndex, ByteBuffer[] pages) {
+        ByteBuffer[] sources = new ByteBuffer[pages.length];
+        for (int i = 0; i < pages.length; i++) sources[i] = pages[i].duplicate().clear();
+        long remaining = (long) pages.length * this.pageSize;
+        this.runLock.lock();
+        try {
+            this.channel.position((long) firstPageIndex * this.pageSize);
+            while (remaining > 0) remaining -= this.channel.write(sources);
+        } catch (IOException e) {
+            throw new RuntimeException("Error saving file pages: ", e);
+        } finally {
+            this.runLock.unlock();
+        }
+    }
+
+    @Override
+    public void expandFileIfNeeded(int totalPage) {
+        long expectedSize = ((long) totalPage + 1) * this.pageSize;
+        if (this.fileLength >= expectedSize) return;
+        this.expandLock.lock();
+        try {
+            if (this.fileLength < expectedSize) {
+                // Grown ahead by an eighth of its size, at least minGrowth, so the file is extended rarely and in large pieces
+                long growth = Math.max(minGrowth, this.fileLength / 8);
+                long newLength = Math.max(expectedSize, (this.fileLength + growth) / this.pageSize * this.pageSize);
+                this.file.setLength(newLength); // OS-level file expanding
+                this.fileLength = newLength;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            this.expandLock.unlock();
+        }
+    }
+
+    @Override
+    public void force() {
+        try {
+            this.channel.force(true);
+        } catch (IOException e) { throw new RuntimeException("Error forcing page file: ", e); }
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.force(true);
+            this.asyncChannel.close();
+            this.channel.close();
+            this.file.close();
+        } catch (IOException e) { throw new RuntimeException("Error closing page file: ", e); }
+    }
+}
@@ -0,0 +1,71 @@
+package PageManager;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Name of class: FramePool
+ * <p>
+ * Description: Preallocated set of page frames in direct memory. Cached pages are views over these frames,
+ * a frame goes back to the pool when its page is evicted and is reused by the next load, so page I/O does not create garbage.
+ * <p>
+ * Version: 1.0
+ * <p>
+ * Date 10/18
+ * <p>
+ * Copyright: Semenov Egor
+ */
+
+public class FramePool {
+    private static final int slabSize = 4 * 1024 * 1024; // one direct allocation per 4 MB of frames, whatever the page size
+
+    private final int frameSize;
+    private final ByteBuffer[] freeFrames;
+    private int freeCount = 0;
+    private final Lock poolLock = new ReentrantLock();
+
+    public FramePool(int frameNumber, int frameSize) {
+        this.frameSize = frameSize;
+        this.freeFrames = new ByteBuffer[frameNumber];
+        int framesPerSlab = Math.max(1, slabSize / frameSize);
+        for (int allocated = 0; allocated < frameNumber; allocated += framesPerSlab) {
+            int slabFrames = Math.min(framesPerSlab, frameNumber - allocated);
+            ByteBuffer slab = ByteBuffer.allocateDirect(slabFrames * frameSize);
+            for (int i = 0; i < slabFrames; i++) {
+                this.freeFrames[this.freeCount++] = slab.slice(i * frameSize, frameSize);
+            }
+        }
+    }
+
+    /**
+     * Takes a free frame, if all frames are in use (every cached page is owned) an extra frame is created
+     */
+    public ByteBuffer acquire() {
+        this.poolLock.lock();
+        try {
+            if (this.freeCount > 0) {
+                ByteBuffer frame = this.freeFrames[--this.freeCount];
+                this.freeFrames[this.freeCount] = null;
+                frame.clear();
+                return frame;
+            }
+        } finally {
+            this.poolLock.unlock();
+        }
+        return ByteBuffer.allocateDirect(this.frameSize);
+    }
+
+    /**
+     * Gives back the frame of an evicted page, frames that exceed the pool size are left to the garbage collector
+     */
+    public void release(ByteBuffer frame) {
+        if (!frame.isDirect() || frame.capacity() != this.frameSize) return;
+        this.poolLock.lock();
+        try {
+            if (this.freeCount < this.freeFrames.length) this.freeFrames[this.freeCount++] = frame;
+        } finally {
+            this.poolLock.unlock();
+        }
+    }
+}
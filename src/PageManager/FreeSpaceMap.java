@@ -0,0 +1,347 @@
+package PageManager;
+
+import Pages.Page;
+import Pages.PageFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Name of class: FreeSpaceMap
+ * <p>
+ * Description: Remembers for each chain of table pages (the object pages of a table or the pages of one attribute)
+ * how many slots are left on each of its pages and which page ends it, so an insert goes straight to a page with room
+ * instead of walking the chain. A chain is known by its first page.
+ * The counts are hints: the page decides when a slot is taken, a page found full is only recorded as such.
+ * <p>
+ * It also holds the extent reserved for each chain, the contiguous pages its next pages are taken from.
+ * Reserved pages stay free on the page bitmap until they are used, so a lost reservation costs nothing.
+ * <p>
+ * The map is written next to the data file on close and removed once it is read back, so a map found at opening
+ * always matches the file. When it is missing (after a crash) it is rebuilt by scanning the data file on several threads.
+ * <p>
+ * File format: magic (int), recovery start of the closed database (long), chain count (int), then for each chain
+ * its first page (int), its last page (int), its reserved extent (first and end page, int each), its page count (int)
+ * and for each page its number (int) and its free slots (int).
+ * <p>
+ * Version: 1.0
+ * <p>
+ * Date 10/18
+ * <p>
+ * Copyright: Semenov Egor
+ */
+
+public class FreeSpaceMap {
+    private static final int magic = 0x46534D33;
+    private final Path path;
+    private final ConcurrentHashMap<Integer, Chain> chains = new ConcurrentHashMap<>();      // first page -> chain
+    private final ConcurrentHashMap<Integer, Chain> chainOfPage = new ConcurrentHashMap<>(); // every known page -> its chain
+
+    private static final class Chain {
+        final int firstPage;
+        final Map<Integer, Integer> freeSlots = new HashMap<>(); // page -> slots left, for every known page of the chain
+        final TreeSet<Integer> withRoom = new TreeSet<>();       // pages with slots left
+        int tail;
+        int reservedNext = 0; // pages reserved for the chain and not used yet, from reservedNext to reservedEnd excluded
+        int reservedEnd = 0;
+        final Lock lock = new ReentrantLock();
+
+        Chain(int firstPage) {
+            this.firstPage = firstPage;
+            this.tail = firstPage;
+        }
+    }
+
+    public FreeSpaceMap(String filePath) {
+        this.path = Paths.get(filePath);
+    }
+
+    /**
+     * @return page of the chain with slots left, the lowest number first, or -1 if none is known
+     */
+    public int pageWithRoom(int firstPage) {
+        Chain chain = this.chains.get(firstPage);
+        if (chain == null) return -1;
+        chain.lock.lock();
+        try {
+            return chain.withRoom.isEmpty() ? -1 : chain.withRoom.first();
+        } finally {
+            chain.lock.unlock();
+        }
+    }
+
+    /**
+     * @return last known page of the chain, every page before it is known, the first page for a chain never seen
+     */
+    public int getTail(int firstPage) {
+        Chain chain = this.chains.get(firstPage);
+        if (chain == null) return firstPage;
+        chain.lock.lock();
+        try {
+            return chain.tail;
+        } finally {
+            chain.lock.unlock();
+        }
+    }
+
+    public void setTail(int firstPage, int pageNumber) {
+        Chain chain = this.chainOf(firstPage);
+        chain.lock.lock();
+        try {
+            chain.tail = pageNumber;
+        } finally {
+            chain.lock.unlock();
+        }
+    }
+
+    /**
+     * Records the slots left on a page of the chain, the page joins the chain if it is new to it
+     */
+    public void update(int firstPage, int pageNumber, int freeSlots) {
+        Chain chain = this.chainOf(firstPage);
+        this.chainOfPage.putIfAbsent(pageNumber, chain);
+        FreeSpaceMap.record(chain, pageNumber, freeSlots);
+    }
+
+    /**
+     * Records the slots left on a page when its chain is not at hand (after a delete), a page of no known chain is ignored
+     */
+    public void updatePage(int pageNumber, int freeSlots) {
+        Chain chain = this.chainOfPage.get(pageNumber);
+        if (chain != null) FreeSpaceMap.record(chain, pageNumber, freeSlots);
+    }
+
+    /**
+     * Forgets a chain whose pages were freed
+     * @return first and end page of the part of its extent it didn't use, to be given back, or null
+     */
+    public int[] dropChain(int firstPage) {
+        Chain chain = this.chains.remove(firstPage);
+        if (chain == null) return null;
+        chain.lock.lock();
+        try {
+            for (int pageNumber : chain.freeSlots.keySet()) this.chainOfPage.remove(pageNumber, chain);
+            this.chainOfPage.remove(firstPage, chain);
+            int[] unused = (chain.reservedNext < chain.reservedEnd) ? new int[]{chain.reservedNext, chain.reservedEnd} : null;
+            chain.reservedNext = chain.reservedEnd;
+            return unused;
+        } finally {
+            chain.lock.unlock();
+        }
+    }
+
+    /**
+     * @return first and end page of the unused part of every extent, after a load they must be kept out of allocation
+     */
+    public List<int[]> getReservedExtents() {
+        List<int[]> extents = new ArrayList<>();
+        for (Chain chain : this.chains.values()) {
+            chain.lock.lock();
+            try {
+                if (chain.reservedNext < chain.reservedEnd) extents.add(new int[]{chain.reservedNext, chain.reservedEnd});
+            } finally {
+                chain.lock.unlock();
+            }
+        }
+        return extents;
+    }
+
+    /**
+     * @return number of pages the chain is known to have
+     */
+    public int getPageCount(int firstPage) {
+        Chain chain = this.chains.get(firstPage);
+        if (chain == null) return 1;
+        chain.lock.lock();
+        try {
+            return Math.max(1, chain.freeSlots.size());
+        } finally {
+            chain.lock.unlock();
+        }
+    }
+
+    /**
+     * @return next page of the extent reserved for the chain or -1 if it is used up
+     */
+    public int takeReserved(int firstPage) {
+        Chain chain = this.chainOf(firstPage);
+        chain.lock.lock();
+        try {
+            return (chain.reservedNext < chain.reservedEnd) ? chain.reservedNext++ : -1;
+        } finally {
+            chain.lock.unlock();
+        }
+    }
+
+    /**
+     * Gives the chain a new extent, its previous one must be used up
+     * @param start first page of the extent, handed out at once by the caller
+     * @param end page after the last one
+     */
+    public void reserve(int firstPage, int start, int end) {
+        Chain chain = this.chainOf(firstPage);
+        chain.lock.lock();
+        try {
+            chain.reservedNext = start + 1;
+            chain.reservedEnd = end;
+        } finally {
+            chain.lock.unlock();
+        }
+    }
+
+    private Chain chainOf(int firstPage) {
+        return this.chains.computeIfAbsent(firstPage, number -> {
+            Chain chain = new Chain(number);
+            this.chainOfPage.put(number, chain);
+            return chain;
+        });
+    }
+
+    private static void record(Chain chain, int pageNumber, int freeSlots) {
+        chain.lock.lock();
+        try {
+            chain.freeSlots.put(pageNumber, freeSlots);
+            if (freeSlots > 0) chain.withRoom.add(pageNumber);
+            else chain.withRoom.remove(pageNumber);
+        } finally {
+            chain.lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the map written by the last close and removes the file, so it can't be taken for the map of a later state
+     * @param recoveryStart recovery start of the opened database, the map must have been written with the same one
+     * @return false if there was no usable map, it must be rebuilt
+     */
+    public boolean load(long recoveryStart) {
+        if (!Files.exists(this.path)) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.path)))) {
+            if (in.readInt() != magic || in.readLong() != recoveryStart) return false;
+            for (int chains = in.readInt(); chains > 0; chains--) {
+                Chain chain = this.chainOf(in.readInt());
+                chain.tail = in.readInt();
+                chain.reservedNext = in.readInt();
+                chain.reservedEnd = in.readInt();
+                for (int pages = in.readInt(); pages > 0; pages--) {
+                    int pageNumber = in.readInt();
+                    this.chainOfPage.put(pageNumber, chain);
+                    FreeSpaceMap.record(chain, pageNumber, in.readInt());
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            this.chains.clear(); // truncated by a crash during the close
+            this.chainOfPage.clear();
+            return false;
+        } finally {
+            this.discard();
+        }
+    }
+
+    /**
+     * Removes a map left by an older database of the same name
+     */
+    public void discard() {
+        try {
+            Files.deleteIfExists(this.path);
+        } catch (IOException e) { throw new RuntimeException("Error removing free-space map: ", e); }
+    }
+
+    /**
+     * Writes the map on close, once every page is in the data file
+     * @param recoveryStart recovery start written in the header by the close
+     */
+    public void save(long recoveryStart) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(this.path)))) {
+            out.writeInt(magic);
+            out.writeLong(recoveryStart);
+            out.writeInt(this.chains.size());
+            for (Chain chain : this.chains.values()) {
+                out.writeInt(chain.firstPage);
+                out.writeInt(chain.tail);
+                out.writeInt(chain.reservedNext);
+                out.writeInt(chain.reservedEnd);
+                out.writeInt(chain.freeSlots.size());
+                for (Map.Entry<Integer, Integer> page : chain.freeSlots.entrySet()) {
+                    out.writeInt(page.getKey());
+                    out.writeInt(page.getValue());
+                }
+            }
+        } catch (IOException e) { throw new RuntimeException("Error writing free-space map: ", e); }
+    }
+
+    /**
+     * Rebuilds the map from the data file, which must be recovered and not in use yet.
+     * The pages are split in ranges read by different threads, each table page gives its free slots and its next page,
+     * then the chains are followed from the table pages no other one leads to.
+     * Freed pages keep their old content, only the pages in use are read
+     * @param totalPage number of the last page of the file
+     * @param inUse tells the pages in use, from the page bitmap
+     * @param workers number of threads reading the file
+     */
+    public void rebuild(MemoryManager.PageLoader loader, int totalPage, IntPredicate inUse, int workers) {
+        int pageCount = totalPage + 1;
+        int[] nextPage = new int[pageCount];
+        int[] freeSlots = new int[pageCount];
+        Arrays.fill(freeSlots, -1); // not a table page
+
+        Thread[] threads = new Thread[Math.max(1, Math.min(workers, pageCount))];
+        RuntimeException[] failures = new RuntimeException[threads.length];
+        int share = (pageCount + threads.length - 1) / threads.length;
+        for (int i = 0; i < threads.length; i++) {
+            int worker = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    ByteBuffer frame = null;
+                    for (int pageNumber = worker * share; pageNumber < Math.min(pageCount, (worker + 1) * share); pageNumber++) {
+                        if (!inUse.test(pageNumber)) continue;
+                        frame = loader.load(pageNumber, frame);
+                        short type = frame.getShort(0);
+                        if (type < 1 || type > 4) continue; // object, string, long and boolean pages make the chains
+                        Page page = PageFactory.createPage(frame, pageNumber);
+                        nextPage[pageNumber] = page.getNextPage();
+                        freeSlots[pageNumber] = page.getFreeSlotCount();
+                    }
+                } catch (RuntimeException e) {
+                    failures[worker] = e;
+                }
+            }, "free-space-rebuild-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while rebuilding free-space map");
+            }
+        }
+        for (RuntimeException failure : failures) if (failure != null) throw failure;
+
+        boolean[] linked = new boolean[pageCount];
+        for (int pageNumber = 0; pageNumber < pageCount; pageNumber++) {
+            int next = nextPage[pageNumber];
+            if (freeSlots[pageNumber] != -1 && next > 0 && next < pageCount) linked[next] = true;
+        }
+        for (int firstPage = 0; firstPage < pageCount; firstPage++) {
+            if (freeSlots[firstPage] == -1 || linked[firstPage]) continue;
+            int pageNumber = firstPage;
+            int steps = 0;
+            while (true) {
+                this.update(firstPage, pageNumber, freeSlots[pageNumber]);
+                int next = nextPage[pageNumber];
+                if (next <= 0 || next >= pageCount || freeSlots[next] == -1 || ++steps > pageCount) break;
+                pageNumber = next;
+            }
+            this.setTail(firstPage, pageNumber);
+        }
+    }
+}
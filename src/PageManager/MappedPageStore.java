@@ -0,0 +1,131 @@
+package PageManager;
+
+import Pages.Page;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Name of class: MappedPageStore
+ * <p>
+ * Description: Maps the database file into memory by fixed regions and reads and writes pages as copies of the mapping.
+ * A cache miss copies the page from the mapping without a system call. The cached pages are not views on the mapping:
+ * the OS may write a mapped page back at any time, a change must reach the file only through save,
+ * after its log batch was forced.
+ * The mapping grows region by region when the total page count goes past the mapped area.
+ * <p>
+ * Version: 2.0
+ * <p>
+ * Date 10/18
+ * <p>
+ * Copyright: Semenov Egor
+ */
+
+public class MappedPageStore implements MemoryManager.PageStore {
+    private static final long regionSize = 16L * 1024 * 1024;
+    private final int pageSize;
+    private final int pagesPerRegion;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    // Regions are only appended, readers work on a snapshot of the array
+    private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+    private final Lock mappingLock = new ReentrantLock();
+
+    public MappedPageStore(String filePath){
+        this(filePath, Page.defaultPageSize);
+    }
+
+    public MappedPageStore(String filePath, int pageSize){
+        this.pageSize = pageSize;
+        this.pagesPerRegion = (int) (regionSize / pageSize);
+        try {
+            this.file = new RandomAccessFile(filePath, "rw");
+            this.channel = this.file.getChannel();
+            long pages = (this.channel.size() + this.pageSize - 1) / this.pageSize;
+            if (pages > 0) this.mapUpTo((int) (pages - 1));
+        } catch (IOException e) { throw new RuntimeException("Error mapping page file: ", e); }
+    }
+
+    /**
+     * Copies the page from the mapping into the frame
+     */
+    @Override
+    public ByteBuffer load(int pageIndex, ByteBuffer frame) {
+        ByteBuffer buffer = (frame != null) ? frame.clear() : ByteBuffer.allocate(this.pageSize);
+        MappedByteBuffer region = this.regionOf(pageIndex);
+        buffer.put(0, region, this.offsetInRegion(pageIndex), this.pageSize);
+        return buffer;
+    }
+
+    @Override
+    public void save(int pageIndex, ByteBuffer data) {
+        MappedByteBuffer region = this.regionOf(pageIndex);
+        region.put(this.offsetInRegion(pageIndex), data, 0, this.pageSize);
+    }
+
+    @Override
+    public void expandFileIfNeeded(int totalPage) {
+        if (totalPage < this.regions.length * this.pagesPerRegion) return;
+        this.mapUpTo(totalPage);
+    }
+
+    /**
+     * Forces every mapped region to the storage device
+     */
+    @Override
+    public void force() {
+        for (MappedByteBuffer region : this.regions) region.force();
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.force();
+            this.channel.close();
+            this.file.close();
+        } catch (IOException e) { throw new RuntimeException("Error closing page file: ", e); }
+    }
+
+    private MappedByteBuffer regionOf(int pageIndex) {
+        int regionIndex = pageIndex / this.pagesPerRegion;
+        MappedByteBuffer[] current = this.regions;
+        if (regionIndex >= current.length) {
+            this.mapUpTo(pageIndex);
+            current = this.regions;
+        }
+        return current[regionIndex];
+    }
+
+    private int offsetInRegion(int pageIndex) {
+        return (pageIndex % this.pagesPerRegion) * this.pageSize;
+    }
+
+    /**
+     * Maps all the regions needed to reach the page, mapping past the end of file extends it
+     */
+    private void mapUpTo(int pageIndex) {
+        int neededRegions = pageIndex / this.pagesPerRegion + 1;
+        this.mappingLock.lock();
+        try {
+            MappedByteBuffer[] current = this.regions;
+            if (current.length >= neededRegions) return;
+            MappedByteBuffer[] grown = Arrays.copyOf(current, neededRegions);
+            for (int i = current.length; i < neededRegions; i++) {
+                grown[i] = this.channel.map(FileChannel.MapMode.READ_WRITE, i * regionSize, regionSize);
+            }
+            this.regions = grown;
+        } catch (IOException e) {
+            throw new RuntimeException("Error growing page file mapping: ", e);
+        } finally {
+            this.mappingLock.unlock();
+        }
+    }
+}
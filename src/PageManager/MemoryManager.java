@@ -1,25 +1,45 @@
 package PageManager;
 
+import Exceptions.StorageOperationException;
 import Pages.*;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Name of class: MemoryManager
  * <p>
- * Description: Implements a swap strategy (LFU) in the virtual memory, supports the concept of dirty pages, as long as the allocation and deallocation of resouces.
+ * Description: Implements a scan resistant swap strategy (CLOCK with a probation queue) in the virtual memory, supports the concept of dirty pages, as long as the allocation and deallocation of resouces.
+ * The cache is split into stripes by page number, each with its own lock and replacer: hits take no lock,
+ * misses only lock the stripe of the page while it is inserted, and concurrent misses on one page share a single read.
+ * The missing pages of a request are read together through asynchronous loads, so the request waits for a single round of I/O.
+ * Dirty pages are written back by a PageFlusher thread, when they get too old or too many.
+ * Changes are made durable by the WriteAheadLog when pages are released, a page reaches the data file only after its log batch.
+ * The flusher also takes fuzzy checkpoints: the header keeps the oldest log batch a dirty page may still need,
+ * so recovery replays the log from there and older segments are dropped, without stopping the writers.
+ * It also owns the free-space map of the table chains, saved on close and rebuilt from the file after a crash.
+ * New pages of a chain come from an extent of contiguous pages reserved for it, so a chain scan reads the file in order.
+ * Free pages are tracked on bitmap pages kept in memory (see PageBitmap): allocation reads nothing from the file,
+ * and the pages of deleted chains are freed together in one log batch.
+ * A ChainPrefetcher reads ahead the pages of the chains walked by the callers.
  * <p>
  * Version: 2.0
  * <p>
@@ -30,204 +50,899 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class MemoryManager {
     private static final short FREE_PAGE_TYPE = 99;
-    private final int pageSize = 4096;
+    private static final int minPagesPerStripe = 64;
+    private static final long flushIntervalMs = 250;
+    private static final long maxDirtyAgeMs = 1000; // a page stays dirty in memory at most about this long
+    private static final int maxRunPages = 64; // 256 KB per gathering write
+    static final long unloggedLsn = Long.MAX_VALUE; // page changed outside of any owner and not logged yet, it can't be written
+    private static final int formatVersion = 5; // 2: page LSN in the meta info, recovery start in the header; 3: page size in the header; 4: slot bitmap on fixed-width pages; 5: free pages on bitmap pages
+    private static final long checkpointLogBytes = 32L * 1024 * 1024; // log replayed at most after a crash, about
+    private static final long checkpointIntervalMs = 10_000;
+    private static final int minExtentPages = 8; // contiguous pages reserved for a chain at once, as many as it has past this
+    private static final int maxExtentPages = maxRunPages;
+    private static final int prefetchThreads = 2; // background threads reading ahead the walked chains
+    private final int pageSize;
     private final int dataBaseVersion;
 
-    private final int maxPage;
+    private final PageStore store;
     private final PageSaver saver;
     private final PageLoader loader;
+    private final FramePool framePool;
+    private final WriteAheadLog wal;
+    private final FreeSpaceMap freeSpaceMap;
 
-    private final ConcurrentHashMap<Integer, Page> pageCache;
-    private final ConcurrentSkipListSet<Integer> dirtyPages = new ConcurrentSkipListSet<>();
-    private final ConcurrentHashMap<Integer, Integer> accessCounts = new ConcurrentHashMap<>();//LFU strategy
+    private final CacheStripe[] stripes; // power of two, a page lives in stripe pageNumber & (length - 1)
+    private final ConcurrentSkipListMap<Integer, Long> dirtyPages = new ConcurrentSkipListMap<>(); // page number -> time it got dirty
+    private final AtomicInteger dirtyCount = new AtomicInteger(); // size of dirtyPages, which has no constant-time size
+    private final int dirtyHighWatermark; // past this count the flusher is woken up at once
+    private final PageFlusher flusher;
+    private final ChainPrefetcher prefetcher;
+
+    // Dirty page table: first log batch each written-back page still needs, the recovery start can't go past the oldest
+    private final ConcurrentHashMap<Integer, Long> recoveryLsns = new ConcurrentHashMap<>();
+    private final AtomicLong recoveryStartLsn; // next value of the header field, written with page 0
+    private volatile long writtenRecoveryStart; // value held by the last page 0 written
+    private long lastCheckpoint = System.nanoTime(); // flusher thread only
+
+    // Header state is kept here, page 0 is only brought up to date when it is written
+    private final Page headerPage; // page 0 is never evicted, the cached object and its wrapper stay valid
+    private final HeaderPage header;
+    private final AtomicInteger totalPage;
+    private final PageBitmap bitmap;
+    private final AtomicBoolean headerChanged = new AtomicBoolean(false); // changed since it was last logged
 
     // To synchronize allocation process
-    private final ReentrantReadWriteLock headerLock = new ReentrantReadWriteLock();
-    private final Lock dirtyLock = new  ReentrantLock();
-    private final Lock cacheLock = new ReentrantLock();
+    private final Lock allocationLock = new ReentrantLock();
 
     public MemoryManager(int maxPage, String filePath) {
-        this.maxPage = maxPage;
-        this.pageCache = new ConcurrentHashMap<>(maxPage);
+        this(maxPage, filePath, StorageBackend.FILE_CHANNEL);
+    }
+
+    /**
+     * @param backend FILE_CHANNEL copies pages in and out of the file,
+     *                MEMORY_MAPPED copies pages in and out of a mapping of the file (suited to read-mostly workloads)
+     */
+    public MemoryManager(int maxPage, String filePath, StorageBackend backend) {
+        this(maxPage, filePath, backend, Page.defaultPageSize);
+    }
+
+    /**
+     * @param pageSize page size of a new database, a power of two from 4 KB to 64 KB. An existing database keeps the size it was created with.
+     *                 Larger pages make shorter chains, so a scan needs fewer reads
+     */
+    public MemoryManager(int maxPage, String filePath, StorageBackend backend, int pageSize) {
+        if(!Page.isValidPageSize(pageSize)) throw new IllegalArgumentException("Page size must be a power of two from " + Page.defaultPageSize + " to " + Page.maxPageSize + ": " + pageSize);
         Path path = Paths.get(filePath);
-        this.saver = new FilePageSaver(filePath);
-        this.loader = new  FilePageLoader(filePath);
-        if(Files.exists(path)) {
-            HeaderPage header = this.loadHeaderPage();
-            this.dataBaseVersion = header.getDataBaseVersion();
+        boolean fileExists = Files.exists(path);
+        this.pageSize = fileExists ? MemoryManager.storedPageSize(path) : pageSize;
+        int stripeNumber = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        while (stripeNumber > 1 && maxPage / stripeNumber < minPagesPerStripe) stripeNumber >>= 1;
+        int pagesPerStripe = (maxPage + stripeNumber - 1) / stripeNumber;
+        this.stripes = new CacheStripe[stripeNumber];
+        for (int i = 0; i < stripeNumber; i++) this.stripes[i] = new CacheStripe(pagesPerStripe);
+        this.store = switch (backend) {
+            case FILE_CHANNEL -> new FilePageStore(filePath, this.pageSize);
+            case MEMORY_MAPPED -> new MappedPageStore(filePath, this.pageSize);
+        };
+        this.saver = this.store;
+        this.loader = this.store;
+        this.framePool = new FramePool(pagesPerStripe * stripeNumber, this.pageSize);
+        this.dirtyHighWatermark = Math.max(1, maxPage / 4);
+        this.flusher = new PageFlusher(this, flushIntervalMs);
+        this.prefetcher = new ChainPrefetcher(this, maxPage, prefetchThreads);
+        this.wal = new WriteAheadLog(filePath + ".wal", this.pageSize);
+        this.freeSpaceMap = new FreeSpaceMap(filePath + ".fsm");
+        long logEnd = 0;
+        if(fileExists) {
+            HeaderPage stored = new HeaderPage(this.loader.load(0), 0);
+            long recoveryStart = stored.getRecoveryStartLsn();
+            logEnd = this.wal.replay(recoveryStart, this.store, Runtime.getRuntime().availableProcessors());
+            if(logEnd > recoveryStart) {
+                this.saver.force();
+                System.out.println("Recovered " + (logEnd - recoveryStart) + " bytes of log");
+            }
             System.out.println("Connecting to existing file");
         } else {
-            try {
-                Files.createFile(path);
-            }catch (IOException e){e.printStackTrace();}
-            HeaderPage header = new HeaderPage(0, 1);
-            MetaPage meta = new MetaPage(1);
-            this.saver.save(0, header.getData());
+            HeaderPage newHeader = new HeaderPage(0, formatVersion, this.pageSize);
+            MetaPage meta = new MetaPage(1, this.pageSize);
+            BitmapPage bitmapPage = BitmapPage.formatFrame(ByteBuffer.allocate(this.pageSize), newHeader.getFirstBitmapPage());
+            for(int pageIndex = 0; pageIndex <= newHeader.getTotalPage(); pageIndex++) bitmapPage.setUsed(pageIndex, true);
+            this.saver.save(0, newHeader.getData());
             this.saver.save(1, meta.getData());
-            this.dataBaseVersion = 1;
+            this.saver.save(bitmapPage.getPageNumber(), bitmapPage.getData());
             System.out.println("Creating new file");
         }
+        this.dataBaseVersion = formatVersion;
+        this.headerPage = this.loadPageWithoutCheck(0, false);
+        this.header = new HeaderPage(this.headerPage.getData(), 0);
+        this.totalPage = new AtomicInteger(this.header.getTotalPage());
+        this.bitmap = this.loadBitmap();
+        if(!fileExists) this.freeSpaceMap.discard();
+        else if(this.freeSpaceMap.load(logEnd)) {
+            for(int[] extent : this.freeSpaceMap.getReservedExtents()) this.bitmap.reserve(extent[0], extent[1]);
+        } else { // not closed properly, the map of the last close is gone
+            this.freeSpaceMap.rebuild(this.loader, this.totalPage.get(), this.bitmap::isUsed, Runtime.getRuntime().availableProcessors());
+            System.out.println("Rebuilt the free-space map");
+        }
+        // Every logged page is in the data file now, the log starts over where it ended so LSNs keep growing
+        this.recoveryStartLsn = new AtomicLong(logEnd);
+        this.header.setRecoveryStartLsn(logEnd);
+        this.saver.save(0, this.headerPage.getData());
+        this.saver.force();
+        this.writtenRecoveryStart = logEnd;
+        this.wal.start(logEnd);
+        this.flusher.start();
+    }
+
+    public FreeSpaceMap getFreeSpaceMap() {
+        return this.freeSpaceMap;
+    }
+
+    /**
+     * Caches the bitmap pages for good, the first range has its own page and every next range starts with its bitmap page
+     */
+    private PageBitmap loadBitmap() {
+        int pagesCovered = BitmapPage.pagesCovered(this.pageSize);
+        List<BitmapPage> bitmapPages = new ArrayList<>();
+        for(int range = 0; range <= this.totalPage.get() / pagesCovered; range++){
+            int pageIndex = (range == 0) ? this.header.getFirstBitmapPage() : range * pagesCovered;
+            Page page = this.loadPageWithoutCheck(pageIndex, false);
+            if(page instanceof BitmapPage bitmapPage) bitmapPages.add(bitmapPage);
+            else { // the header of a crash grew the file, no page of the new range got logged with its bitmap page
+                BitmapPage bitmapPage = BitmapPage.formatFrame(page.getData(), pageIndex);
+                bitmapPage.setUsed(pageIndex % pagesCovered, true);
+                page.markEvicted();
+                this.stripeOf(pageIndex).pages.put(bitmapPage);
+                bitmapPages.add(bitmapPage);
+            }
+        }
+        return new PageBitmap(bitmapPages, this.header.getFirstBitmapPage(), this.totalPage.get(), this.pageSize);
     }
 
     public List<Page> indexesToPages(List<Integer> requestedPageIndexes) {
-        List<Page> pages = new ArrayList<>(requestedPageIndexes.size());
-        for (int index : requestedPageIndexes) {
-            if(index != -1) pages.add(this.loadPage(index));
-            else pages.add(this.allocatePage());
+        return this.indexesToPages(requestedPageIndexes, false);
+    }
+
+    /**
+     * When several pages of the list are missing they are read at once, then the pages are taken in order,
+     * so the request waits for one round of reads instead of one read after the other
+     * @param sequentialScan the pages are read by a walk over a whole chain, they must not push frequently used pages out
+     */
+    public List<Page> indexesToPages(List<Integer> requestedPageIndexes, boolean sequentialScan) {
+        int size = requestedPageIndexes.size();
+        for (int i = 0; i < size; i++) if(requestedPageIndexes.get(i) >= 0) this.checkBounds(requestedPageIndexes.get(i));
+        // Hits go in the list at once, a request object is only made for the pages that miss
+        List<Page> pages = new ArrayList<>(size);
+        PageRequest[] requests = null;
+        int next = 0;
+        try {
+            int misses = 0;
+            for (int i = 0; i < size; i++) {
+                int index = requestedPageIndexes.get(i);
+                Page page = (index >= 0) ? this.cachedPage(index, sequentialScan) : null;
+                pages.add(page);
+                if(page != null || index < 0) continue;
+                if(requests == null) requests = new PageRequest[size];
+                requests[i] = this.startLoad(index, sequentialScan);
+                if(requests[i].loading != null) misses++;
+            }
+            if(misses > 1) for (PageRequest request : requests) if(request != null && request.loading != null) this.startRead(request, true);
+            for (; next < size; next++) {
+                int index = requestedPageIndexes.get(next);
+                Page page = pages.get(next);
+                if(page != null) this.prefetcher.pageLoaded(page, false);
+                else if(index >= 0){
+                    page = this.finishLoad(requests[next]);
+                    this.prefetcher.pageLoaded(page, requests[next].page == null);
+                    pages.set(next, page);
+                }
+                else if(index == -1) pages.set(next, this.allocatePage());
+                else pages.set(next, this.allocateChainPage(-2 - index));
+            }
+        } catch (RuntimeException | Error e) {
+            // The loads registered and not finished are given up, others may be waiting for them
+            for (int i = next; requests != null && i < size; i++) {
+                if(requests[i] != null) this.abandonLoad(requests[i], e);
+            }
+            throw e;
         }
         return pages;
     }
 
+    /**
+     * Index to request a new page for the chain starting at the given page, like -1 requests any new page
+     */
+    public static int chainPageIndex(int firstPage) {
+        return -2 - firstPage;
+    }
+
     public void exchangePage(Page newPage) {
-        this.cacheLock.lock();
+        CacheStripe stripe = this.stripeOf(newPage.getPageNumber());
+        stripe.lock.lock();
         try{
-            this.pageCache.put(newPage.getPageNumber(),  newPage);
+            Page oldPage = stripe.pages.get(newPage.getPageNumber());
+            if(oldPage == null) this.cachePage(stripe, newPage, false);
+            else stripe.pages.put(newPage); // keeps the slot and usage of the old page
+            if(oldPage != null && oldPage != newPage) oldPage.markEvicted(); // the frame now belongs to the new page
         } finally {
-            this.cacheLock.unlock();
+            stripe.lock.unlock();
         } this.markDirty(newPage.getPageNumber());
     }
 
-    private Page loadPage(int pageNumber){
-        this.headerLock.readLock().lock();
-        try {
-            HeaderPage header = this.loadHeaderPage();
-            if (pageNumber > header.getTotalPage()) throw new IndexOutOfBoundsException("Page number " + pageNumber + " is out of bounds for size " + header.getPageNumber());
-        }finally {this.headerLock.readLock().unlock();}
-        return this.loadPageWithoutCheck(pageNumber);
+    /**
+     * Loads a page for the prefetcher, it enters the cache like a page of a scan
+     */
+    Page prefetchPage(int pageNumber){
+        this.checkBounds(pageNumber);
+        return this.loadPageWithoutCheck(pageNumber, true);
+    }
+
+    private void checkBounds(int pageNumber){
+        int totalPage = this.totalPage.get();
+        if (pageNumber > totalPage) throw new IndexOutOfBoundsException("Page number " + pageNumber + " is out of bounds for size " + totalPage);
+    }
+
+    private Page loadPageWithoutCheck(int pageNumber, boolean sequentialScan){
+        Page page = this.cachedPage(pageNumber, sequentialScan);
+        return (page != null) ? page : this.finishLoad(this.startLoad(pageNumber, sequentialScan));
+    }
+
+    /**
+     * Looks the page up without any lock or allocation
+     * @return null if the page is not cached
+     */
+    private Page cachedPage(int pageNumber, boolean sequentialScan){
+        CacheStripe stripe = this.stripeOf(pageNumber);
+        int slot = stripe.pages.slotOf(pageNumber);
+        Page page = (slot >= 0) ? stripe.pages.pageAt(slot) : null;
+        if(page == null || page.getPageNumber() != pageNumber) return null;
+        return this.hit(stripe, slot, page, sequentialScan);
     }
 
-    private Page loadPageWithoutCheck(int pageNumber){
-        Page page = this.pageCache.get(pageNumber);
+    /**
+     * Page asked for that was not cached: loaded meanwhile, read by another thread, or read by this one from the store
+     */
+    private static final class PageRequest {
+        final int pageNumber;
+        final boolean sequentialScan;
+        Page page;                         // cached by a load that finished after the lookup
+        CompletableFuture<Page> inFlight;  // miss of another thread on the same page
+        CompletableFuture<Page> loading;   // own miss, seen by the other threads
+        ByteBuffer frame;
+        CompletableFuture<ByteBuffer> read; // null until the read is started
+
+        PageRequest(int pageNumber, boolean sequentialScan) {
+            this.pageNumber = pageNumber;
+            this.sequentialScan = sequentialScan;
+        }
+    }
+
+    /**
+     * Registers the miss of a page not found by cachedPage, its read starts at the latest when the request is finished.
+     * Every request must be finished, concurrent misses on the same page wait for the first one instead of reading it again
+     */
+    private PageRequest startLoad(int pageNumber, boolean sequentialScan){
+        PageRequest request = new PageRequest(pageNumber, sequentialScan);
+        CacheStripe stripe = this.stripeOf(pageNumber);
+        CompletableFuture<Page> loading = new CompletableFuture<>();
+        request.inFlight = stripe.loading.putIfAbsent(pageNumber, loading);
+        if(request.inFlight != null) return request;
+        Page page = stripe.pages.get(pageNumber); // an earlier load may have finished after our lookup
         if(page != null){
-            if(page.getType() == FREE_PAGE_TYPE) throw new IllegalArgumentException("Tried to load free page without allocation");
-            this.accessCounts.merge(pageNumber, 1, Integer::sum);
+            try {
+                request.page = this.hit(stripe, stripe.pages.slotOf(pageNumber), page, sequentialScan);
+                loading.complete(page);
+            } catch (RuntimeException e) {
+                loading.completeExceptionally(e);
+                throw e;
+            } finally {
+                stripe.loading.remove(pageNumber);
+            }
+            return request;
+        }
+        request.loading = loading;
+        return request;
+    }
+
+    /**
+     * Reads the page of a miss outside of any lock
+     * @param async the read goes on in the background, a single read is done by the calling thread
+     */
+    private void startRead(PageRequest request, boolean async){
+        request.frame = this.framePool.acquire();
+        request.read = async ? this.loader.loadAsync(request.pageNumber, request.frame)
+                : CompletableFuture.completedFuture(this.loader.load(request.pageNumber, request.frame));
+    }
+
+    /**
+     * Waits for the page of the request, a page read by this thread is inserted in the cache
+     */
+    private Page finishLoad(PageRequest request){
+        CacheStripe stripe = this.stripeOf(request.pageNumber);
+        if(request.page != null) return request.page;
+        if(request.inFlight != null){
+            Page page = MemoryManager.join(request.inFlight);
+            return this.hit(stripe, stripe.pages.slotOf(request.pageNumber), page, request.sequentialScan);
+        }
+        try {
+            ByteBuffer buffer;
+            try {
+                if(request.read == null) this.startRead(request, false);
+                buffer = MemoryManager.join(request.read);
+            } catch (RuntimeException | Error e) {
+                if(request.frame != null) this.releaseFrame(request.frame);
+                throw e;
+            }
+            Page page = this.insertPage(stripe, request.pageNumber, buffer, request.sequentialScan);
+            request.loading.complete(page);
             return page;
-        } else {
-            this.cacheLock.lock();
-            try{
-                page = this.pageCache.get(pageNumber);
-                if(page !=  null){
-                    this.accessCounts.merge(pageNumber, 1, Integer::sum);
-                } else {
-                    ByteBuffer buffer = loader.load(pageNumber);
-                    if(buffer.getShort(0) == FREE_PAGE_TYPE) throw new IllegalArgumentException("Tried to load free page without allocation");
-                    page = PageFactory.createPage(buffer, pageNumber);
-                    this.cachePage(page);
+        } catch (RuntimeException | Error e) {
+            request.loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            stripe.loading.remove(request.pageNumber);
+        }
+    }
+
+    /**
+     * Gives up an own miss that was not finished, the threads waiting for it get the failure
+     */
+    private void abandonLoad(PageRequest request, Throwable failure){
+        if(request.loading == null || request.loading.isDone()) return;
+        if(request.read != null) {
+            try {
+                MemoryManager.join(request.read); // the frame is written until the read ends
+            } catch (RuntimeException | Error ignored) {}
+        }
+        if(request.frame != null) this.releaseFrame(request.frame);
+        request.loading.completeExceptionally(failure);
+        this.stripeOf(request.pageNumber).loading.remove(request.pageNumber, request.loading);
+    }
+
+    private static <T> T join(CompletableFuture<T> future){
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof Error error) throw error;
+            if(e.getCause() instanceof RuntimeException exception) throw exception;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private Page hit(CacheStripe stripe, int slot, Page page, boolean sequentialScan){
+        if(page.getType() == FREE_PAGE_TYPE) throw new IllegalArgumentException("Tried to load free page without allocation");
+        stripe.replacer.touch(slot, sequentialScan);
+        return page;
+    }
+
+    /**
+     * Caches a page just read, the stripe is only locked to insert it
+     */
+    private Page insertPage(CacheStripe stripe, int pageNumber, ByteBuffer buffer, boolean sequentialScan){
+        // A freed page keeps its old content in the file, the bitmap tells it is free
+        if(buffer.getShort(0) == FREE_PAGE_TYPE || (this.bitmap != null && !this.bitmap.isUsed(pageNumber))){
+            this.releaseFrame(buffer);
+            throw new IllegalArgumentException("Tried to load free page without allocation");
+        }
+        Page page = PageFactory.createPage(buffer, pageNumber);
+        stripe.lock.lock();
+        try {
+            Page cached = stripe.pages.get(pageNumber);
+            if(cached != null){
+                this.releaseFrame(buffer);
+                return this.hit(stripe, stripe.pages.slotOf(pageNumber), cached, sequentialScan);
+            }
+            this.cachePage(stripe, page, sequentialScan);
+            return page;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Hands out the lowest free page, the file grows by one page if there is none.
+     * Allocated pages belong to the requesting thread at once, so they can't be evicted before it acquires them
+     */
+    private Page allocatePage(){
+        int pageIndex = this.bitmap.allocate();
+        if(pageIndex == -1){
+            this.allocationLock.lock();
+            try {
+                pageIndex = this.growFile(1)[0];
+            } finally {
+                this.allocationLock.unlock();
+            }
+            this.bitmap.handOut(pageIndex);
+        }
+        return this.newFreePage(pageIndex);
+    }
+
+    /**
+     * Takes the next page of the extent reserved for the chain, so the pages of a chain follow each other in the file.
+     * A used up extent is replaced by a run of free pages or by new pages at the end of the file, as many as the chain has
+     * from minExtentPages to maxExtentPages. Only the last case takes the allocation lock and changes the header
+     */
+    private Page allocateChainPage(int chain){
+        int pageIndex = this.freeSpaceMap.takeReserved(chain);
+        if(pageIndex != -1) this.bitmap.handOut(pageIndex);
+        else {
+            int extentPages = Math.min(maxExtentPages, Math.max(minExtentPages, this.freeSpaceMap.getPageCount(chain)));
+            int[] extent = this.bitmap.reserveRun(minExtentPages, extentPages);
+            if(extent == null){
+                this.allocationLock.lock();
+                try {
+                    extent = this.growFile(extentPages);
+                } finally {
+                    this.allocationLock.unlock();
                 }
-                return page;
+                this.bitmap.handOut(extent[0]);
+            }
+            this.freeSpaceMap.reserve(chain, extent[0], extent[1]);
+            pageIndex = extent[0];
+        }
+        return this.newFreePage(pageIndex);
+    }
+
+    /**
+     * Adds pages at the end of the file, must be called under the allocation lock.
+     * The run stops at the end of the range of the last bitmap page, a new range starts with its own bitmap page
+     * @return first and end page of the new pages, none of them is available to others
+     */
+    private int[] growFile(int pages){
+        int start = this.totalPage.get() + 1;
+        int pagesCovered = this.bitmap.getPagesCovered();
+        boolean newRange = start % pagesCovered == 0;
+        int first = newRange ? start + 1 : start;
+        int end = Math.min(first + pages, (start / pagesCovered + 1) * pagesCovered);
+        this.totalPage.set(end - 1);
+        this.changeHeader();
+        this.saver.expandFileIfNeeded(end - 1);
+        if(newRange){
+            BitmapPage bitmapPage = BitmapPage.formatFrame(this.newFrame(), start);
+            CacheStripe stripe = this.stripeOf(start);
+            stripe.lock.lock();
+            try {
+                this.cachePage(stripe, bitmapPage, false);
             } finally {
-                this.cacheLock.unlock();
+                stripe.lock.unlock();
+            }
+            this.bitmap.lock.lock();
+            try {
+                this.bitmap.addBitmapPage(bitmapPage); // logged by the next commit
+            } finally {
+                this.bitmap.lock.unlock();
             }
         }
+        return new int[]{first, end};
     }
 
-    private Page allocatePage(){
-        this.headerLock.writeLock().lock();
+    /**
+     * Caches a free page owned by the calling thread, over the frame of a previous page of that number if it is still cached
+     */
+    private FreePage newFreePage(int pageIndex){
+        CacheStripe stripe = this.stripeOf(pageIndex);
+        stripe.lock.lock();
         try {
-            this.cacheLock.lock();
+            Page previous = stripe.pages.get(pageIndex);
+            if(previous == null){
+                FreePage freePage = FreePage.formatFrame(this.newFrame(), pageIndex);
+                freePage.setOwner(Thread.currentThread());
+                this.cachePage(stripe, freePage, false);
+                return freePage;
+            }
+            previous.lock(); // not while the flusher writes it
             try {
-                HeaderPage header = this.loadHeaderPage();
-                int freePageIndex = header.getFirstFreePage();
-                if (freePageIndex != -1) {
-                    FreePage freePage = new FreePage(this.loader.load(freePageIndex), freePageIndex);
-                    int nextFreePageIndex = freePage.getNextFreePage();
-                    header.setFirstFree(nextFreePageIndex);
-                    this.markDirty(0);
-                    this.cachePage(freePage);
-                    return freePage;
-                } else {
-                    int pageIndex = header.getTotalPage();
-                    header.setTotalPage(++pageIndex);
-                    this.markDirty(0);
-                    FreePage freePage = new FreePage(pageIndex);
-                    this.cachePage(freePage);
-                    this.saver.expandFileIfNeeded(header.getTotalPage());
-                    return freePage;
-                }
+                previous.markEvicted();
             } finally {
-                this.cacheLock.unlock();
+                previous.unlock();
             }
+            this.removeDirty(pageIndex);
+            FreePage freePage = FreePage.formatFrame(previous.getData(), pageIndex);
+            freePage.setOwner(Thread.currentThread());
+            stripe.pages.put(freePage);
+            return freePage;
         } finally {
-            this.headerLock.writeLock().unlock();
+            stripe.lock.unlock();
         }
     }
 
-    public void deletePage(Page page) {
-        this.headerLock.writeLock().lock();
-        try{
-            HeaderPage header = this.loadHeaderPage();
-            int freePageIndex = header.getFirstFreePage();
-            FreePage freePage = new FreePage(page.getPageNumber());
-            freePage.setNextFreePage(freePageIndex);
-
-            this.exchangePage(freePage);
-            header.setFirstFree(freePage.getPageNumber());
-            this.markDirty(freePage.getPageNumber());
-            this.markDirty(0);
+    /**
+     * Frees pages owned by the calling thread in one log batch of the bitmap pages, their content is not written.
+     * The cached copies turn into free pages once the batch is durable, only then can the pages be allocated again
+     */
+    public void freePages(List<Page> pages) {
+        List<Integer> pageIndexes = new ArrayList<>(pages.size());
+        for(Page page : pages) pageIndexes.add(page.getPageNumber());
+        long lsn = -1;
+        this.bitmap.lock.lock();
+        try {
+            this.bitmap.free(pageIndexes);
+            lsn = this.logBitmapChanges(new ArrayList<>(), new ArrayList<>());
         } finally {
-            this.headerLock.writeLock().unlock();
+            this.bitmap.lock.unlock();
         }
+        if(lsn != -1) this.wal.flushTo(lsn);
+        for(Page page : pages){
+            int pageIndex = page.getPageNumber();
+            page.clearDirty(); // its changes die with it
+            CacheStripe stripe = this.stripeOf(pageIndex);
+            stripe.lock.lock();
+            try {
+                Page cached = stripe.pages.get(pageIndex);
+                if(cached == null) continue;
+                cached.lock();
+                try {
+                    this.removeDirty(pageIndex);
+                    this.recoveryLsns.remove(pageIndex); // the file may keep an older image, nobody reads it anymore
+                    cached.markEvicted();
+                } finally {
+                    cached.unlock();
+                }
+                FreePage freePage = FreePage.formatFrame(cached.getData(), pageIndex);
+                freePage.clearDirty();
+                stripe.pages.put(freePage);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        this.bitmap.makeAvailable(pageIndexes);
+    }
+
+    /**
+     * Gives back the unused part of the extent of a dropped chain
+     */
+    public void dropChain(int firstPage) {
+        int[] unused = this.freeSpaceMap.dropChain(firstPage);
+        if(unused != null) this.bitmap.unreserve(unused[0], unused[1]);
     }
 
-    private void evictPage(){
-        this.cacheLock.lock();
+    /**
+     * Must be called under the stripe lock
+     */
+    private void evictPage(CacheStripe stripe, boolean sequentialScan){
+        int slot = stripe.replacer.evict(victim -> this.detachPage(stripe, victim), sequentialScan);
+        if (slot == -1) return; // every cached page is in use, the stripe grows for now
+        Page page = stripe.pages.remove(stripe.pages.pageAt(slot).getPageNumber());
+        this.removeDirty(page.getPageNumber());
+        this.releaseFrame(page.getData());
+    }
+
+    /**
+     * Marks the page as evicted if nobody owns it, writing it first if it is dirty
+     * @return false if the page has to stay in memory
+     */
+    private boolean detachPage(CacheStripe stripe, int slot){
+        Page page = stripe.pages.pageAt(slot);
+        if (page == null) return false;
+        int pageIndex = page.getPageNumber();
+        if (pageIndex == 0) return false; // header page stays resident, it is read without being acquired
+        if (this.bitmap == null || this.bitmap.isBitmapPage(pageIndex)) return false; // so are the bitmap pages, loaded first
+        // Page lock orders eviction against acquisition: once marked, the page can't get an owner anymore
+        page.lock();
         try {
-            List<Integer> sortedPages = this.accessCounts.entrySet().stream()
-                    .sorted(Map.Entry.comparingByValue())
-                    .map(Map.Entry::getKey)
-                    .toList();
-
-            for (Integer pageIndexToRemove : sortedPages) {
-                if (this.pageCache.get(pageIndexToRemove).getOwner() == null) {
-                    if (this.dirtyPages.contains(pageIndexToRemove)) {
-                        this.flushPage(pageIndexToRemove);
-                    }
-                    this.pageCache.remove(pageIndexToRemove);
-                    this.dirtyPages.remove(pageIndexToRemove);
-                    this.accessCounts.remove(pageIndexToRemove);
-                    return;
-                }
+            if (page.isHeld()) return false;
+            if (this.dirtyPages.containsKey(pageIndex)) {
+                this.flushPage(pageIndex);
+                if (this.dirtyPages.containsKey(pageIndex)) return false; // its changes are not logged yet
             }
-        } finally {this.cacheLock.unlock();}
+            page.markEvicted();
+            return true;
+        } finally {page.unlock();}
     }
 
     public void markDirty(int pageNumber){
-        this.dirtyLock.lock();
-        try {
-            this.dirtyPages.add(pageNumber);
-        }finally {this.dirtyLock.unlock();}
+        if(this.dirtyPages.putIfAbsent(pageNumber, System.nanoTime()) == null
+                && this.dirtyCount.incrementAndGet() > this.dirtyHighWatermark) this.flusher.wakeUp();
     }
 
-    private void cachePage(Page page){
-        if(this.pageCache.size() >= this.maxPage){this.evictPage();}
-        this.pageCache.put(page.getPageNumber(), page);
-        this.accessCounts.put(page.getPageNumber(), 1);
+    private void removeDirty(int pageNumber){
+        if(this.dirtyPages.remove(pageNumber) != null) this.dirtyCount.decrementAndGet();
+    }
+
+    /**
+     * Must be called under the stripe lock
+     */
+    private void cachePage(CacheStripe stripe, Page page, boolean sequentialScan){
+        if(stripe.pages.size() >= stripe.capacity){this.evictPage(stripe, sequentialScan);}
+        stripe.replacer.admit(stripe.pages.put(page), sequentialScan);
     }
 
     public void flushPage(int pageIndex) {
-        Page page = this.pageCache.get(pageIndex);
-        if(page != null && page.getOwner() == null && this.dirtyPages.contains(pageIndex)){
-            this.dirtyLock.lock();
-            try{
-                if(this.dirtyPages.contains(pageIndex)){
-                    this.saver.save(pageIndex, page.getData());
-                    this.dirtyPages.remove(pageIndex);
-                }
-            } finally {this.dirtyLock.unlock();}
-        }
+        this.flushPages(List.of(pageIndex));
     }
 
+    /**
+     * Writes the pages that are dirty when it is called, pages dirtied meanwhile are left to the next call
+     */
     public void flushAll() {
-        for(int pageIndex : this.dirtyPages){
-            this.flushPage(pageIndex);
+        this.flushPages(new ArrayList<>(this.dirtyPages.keySet()));
+    }
+
+    /**
+     * One round of the flusher: every page if too many are dirty, otherwise the pages dirty for too long.
+     * Owned pages are skipped until they are released
+     */
+    void writeBack() {
+        boolean tooManyDirty = this.dirtyCount.get() > this.dirtyHighWatermark;
+        long oldestAllowed = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(maxDirtyAgeMs);
+        List<Integer> pageIndexes = new ArrayList<>();
+        for(Map.Entry<Integer, Long> entry : this.dirtyPages.entrySet()){
+            if(tooManyDirty || entry.getValue() - oldestAllowed <= 0) pageIndexes.add(entry.getKey());
+        }
+        this.flushPages(pageIndexes);
+    }
+
+    /**
+     * Writes the dirty pages among the given ones, consecutive page numbers go out together in one gathering write
+     * @param pageIndexes in ascending order
+     */
+    private void flushPages(List<Integer> pageIndexes) {
+        List<Page> run = new ArrayList<>(Math.min(pageIndexes.size(), maxRunPages));
+        for(int pageIndex : pageIndexes){
+            if(!run.isEmpty() && (run.size() == maxRunPages || run.get(run.size() - 1).getPageNumber() + 1 != pageIndex)){
+                this.writeRun(run);
+            }
+            Page page = this.stripeOf(pageIndex).pages.get(pageIndex);
+            if(page == null) continue;
+            page.lock(); // the frame must not be recycled while it is written, locks are taken in page order
+            if(!page.isEvicted() && page.getOwner() == null && page.getLsn() != unloggedLsn
+                    && this.dirtyPages.containsKey(pageIndex)) run.add(page);
+            else page.unlock();
+        }
+        if(!run.isEmpty()) this.writeRun(run);
+    }
+
+    /**
+     * Saves locked pages of consecutive numbers, then unlocks them.
+     * A page leaves the dirty set before it is copied, so a change made during the write marks it dirty again
+     */
+    private void writeRun(List<Page> run) {
+        try {
+            long runLsn = 0;
+            for(Page page : run) runLsn = Math.max(runLsn, page.getLsn());
+            this.wal.flushTo(runLsn); // write-ahead rule
+            ByteBuffer[] buffers = new ByteBuffer[run.size()];
+            long headerRecoveryStart = -1;
+            for(int i = 0; i < buffers.length; i++){
+                Page page = run.get(i);
+                this.removeDirty(page.getPageNumber());
+                if(page.getPageNumber() == 0) headerRecoveryStart = this.syncHeaderPage();
+                buffers[i] = page.getData();
+            }
+            try {
+                this.saver.saveRun(run.get(0).getPageNumber(), buffers);
+            } catch (RuntimeException e) {
+                for(Page page : run) this.markDirty(page.getPageNumber());
+                throw e;
+            }
+            if(headerRecoveryStart >= 0) this.writtenRecoveryStart = headerRecoveryStart;
+            for(Page page : run){
+                // A page dirty again keeps its entry, a batch logged since the copy may have found it there
+                this.recoveryLsns.computeIfPresent(page.getPageNumber(),
+                        (pageIndex, recoveryLsn) -> this.dirtyPages.containsKey(pageIndex) ? recoveryLsn : null);
+            }
+        } finally {
+            for(Page page : run) page.unlock();
+            run.clear();
+        }
+    }
+
+    /**
+     * Logs the pages changed by the calling thread, with the header if it changed, and returns once they are durable.
+     * Commits running at the same time are forced together, the pages themselves are written back later by the flusher
+     * @param changedPages pages owned by the caller, the objects replaced by a delete or an exchange log the new content of their frame
+     */
+    public void commit(List<Page> changedPages) {
+        boolean logHeader = this.headerChanged.getAndSet(false);
+        boolean markPages = this.bitmap.needsMarking(changedPages);
+        if(changedPages.isEmpty() && !logHeader && !markPages && !this.bitmap.hasChanges()) return;
+        List<Integer> pageNumbers = new ArrayList<>(changedPages.size() + 1);
+        List<ByteBuffer> images = new ArrayList<>(changedPages.size() + 1);
+        for(Page page : changedPages){
+            pageNumbers.add(page.getPageNumber());
+            images.add(page.getData());
+        }
+        if(logHeader){
+            this.syncHeaderPage();
+            pageNumbers.add(0);
+            images.add(this.headerPage.getData());
+        }
+        long lsn;
+        if(markPages || this.bitmap.hasChanges()){
+            // New pages are marked used in the batch of their first image
+            this.bitmap.lock.lock();
+            try {
+                this.bitmap.markUsed(changedPages);
+                lsn = this.logBitmapChanges(pageNumbers, images);
+            } finally {
+                this.bitmap.lock.unlock();
+            }
+        } else lsn = this.append(pageNumbers, images);
+        for(Page page : changedPages){
+            page.setLsn(lsn);
+            Page cached = this.stripeOf(page.getPageNumber()).pages.get(page.getPageNumber());
+            if(cached != null && cached != page) cached.setLsn(lsn);
         }
+        if(logHeader) this.headerPage.setLsn(lsn);
+        this.wal.flushTo(lsn);
     }
 
-    private HeaderPage loadHeaderPage() {
-        return new HeaderPage(this.loadPageWithoutCheck(0).getData(), 0);
+    /**
+     * Appends the changed bitmap pages with the given pages, must be called under the bitmap lock
+     * @return LSN of the batch, -1 if there was nothing to log
+     */
+    private long logBitmapChanges(List<Integer> pageNumbers, List<ByteBuffer> images) {
+        List<BitmapPage> bitmapPages = this.bitmap.takeChanged();
+        for(BitmapPage bitmapPage : bitmapPages){
+            pageNumbers.add(bitmapPage.getPageNumber());
+            images.add(bitmapPage.getData());
+        }
+        if(pageNumbers.isEmpty()) return -1;
+        long lsn = this.append(pageNumbers, images);
+        for(BitmapPage bitmapPage : bitmapPages){
+            bitmapPage.setLsn(lsn);
+            this.markDirty(bitmapPage.getPageNumber());
+        }
+        return lsn;
     }
 
+    private long append(List<Integer> pageNumbers, List<ByteBuffer> images) {
+        return this.wal.append(pageNumbers, images, start -> {
+            for(int pageIndex : pageNumbers) this.recoveryLsns.putIfAbsent(pageIndex, start);
+        });
+    }
 
-    public interface PageLoader { ByteBuffer load(int pageIndex);}
-    public interface PageSaver {void save(int pageIndex, ByteBuffer data);void expandFileIfNeeded(int totalPage);}
+    /**
+     * Stops the flusher, writes every dirty page and releases the underlying files, must be called once on shutdown
+     */
+    public void close() {
+        this.flusher.stop();
+        this.prefetcher.stop();
+        this.commit(new ArrayList<>()); // header changes not logged yet
+        for(int pageIndex : this.dirtyPages.keySet()){
+            // Changes nobody committed are written as they are, the data file is forced before the log goes away
+            Page page = this.stripeOf(pageIndex).pages.get(pageIndex);
+            if(page != null && page.getLsn() == unloggedLsn) page.setLsn(0);
+        }
+        this.flushAll();
+        this.recoveryStartLsn.set(this.wal.getAppendedLsn()); // nothing left to replay
+        this.markDirty(0);
+        this.flushPage(0);
+        this.store.close();
+        this.wal.close(); // the data file is forced, the log is not needed anymore
+        this.freeSpaceMap.save(this.recoveryStartLsn.get());
+    }
+
+    /**
+     * Takes a checkpoint when enough log was written or enough time went by since the last one, called by the flusher
+     */
+    void checkpointIfDue() {
+        long now = System.nanoTime();
+        if(this.wal.getAppendedLsn() - this.writtenRecoveryStart < checkpointLogBytes
+                && now - this.lastCheckpoint < TimeUnit.MILLISECONDS.toNanos(checkpointIntervalMs)) return;
+        this.lastCheckpoint = now;
+        this.checkpoint();
+    }
+
+    /**
+     * Fuzzy checkpoint: moves the recovery start to the oldest log batch a dirty page still needs and drops the log before it.
+     * No page is written for it except the header and nobody is stopped, the end of the log is read before
+     * the dirty page table because a batch registers its pages there before it is appended
+     */
+    private void checkpoint() {
+        long start = this.wal.getAppendedLsn();
+        for(long recoveryLsn : this.recoveryLsns.values()) start = Math.min(start, recoveryLsn);
+        this.saver.force(); // pages whose entries left the table are written, not forced yet
+        if(start > this.recoveryStartLsn.get()) {
+            this.recoveryStartLsn.set(start);
+            this.markDirty(0);
+            this.flushPage(0); // skipped while the header waits for its commit, the next round retries
+        }
+        long written = this.writtenRecoveryStart;
+        this.saver.force();
+        this.wal.discardBefore(written);
+    }
+
+    /**
+     * Frame for a page that is created from scratch, its previous content doesn't matter
+     */
+    private ByteBuffer newFrame() {
+        return this.framePool.acquire();
+    }
+
+    private void releaseFrame(ByteBuffer frame) {
+        this.framePool.release(frame);
+    }
+
+    /**
+     * Header state changed, page 0 must be logged before it can be written
+     */
+    private void changeHeader() {
+        this.headerPage.setLsn(unloggedLsn);
+        this.headerChanged.set(true);
+        this.markDirty(0);
+    }
+
+    /**
+     * Copies the in-memory header state to page 0 before it is written, a change made meanwhile marks it dirty again
+     * @return recovery start copied to the page
+     */
+    private long syncHeaderPage() {
+        this.header.setTotalPage(this.totalPage.get());
+        long recoveryStart = this.recoveryStartLsn.get();
+        this.header.setRecoveryStartLsn(recoveryStart);
+        return recoveryStart;
+    }
+
+    /**
+     * Reads the page size from the header of an existing file, checking that its format is supported
+     */
+    private static int storedPageSize(Path path) {
+        ByteBuffer buffer = ByteBuffer.allocate(Page.defaultPageSize); // every page size holds the header fields in its first bytes
+        try (FileChannel channel = FileChannel.open(path)) {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+        } catch (IOException e) { throw new RuntimeException("Error reading database header: ", e); }
+        HeaderPage stored = new HeaderPage(buffer.clear(), 0);
+        if(!"PROJECTDATA".equals(stored.getMagicValue()) || stored.getDataBaseVersion() != formatVersion)
+            throw new StorageOperationException("Unsupported database file format, version " + formatVersion + " is expected");
+        if(!Page.isValidPageSize(stored.getDataBasePageSize()))
+            throw new StorageOperationException("Corrupted database header, page size " + stored.getDataBasePageSize());
+        return stored.getDataBasePageSize();
+    }
+
+    private CacheStripe stripeOf(int pageNumber) {
+        return this.stripes[pageNumber & (this.stripes.length - 1)];
+    }
+
+    /**
+     * Part of the cache: pages whose number falls in the stripe, their replacer and the loads in progress
+     */
+    private static final class CacheStripe {
+        final int capacity;
+        final PageTable pages;
+        final PageReplacer replacer;
+        final ConcurrentHashMap<Integer, CompletableFuture<Page>> loading = new ConcurrentHashMap<>();
+        final Lock lock = new ReentrantLock();
+
+        CacheStripe(int capacity) {
+            this.capacity = capacity;
+            this.pages = new PageTable(capacity);
+            this.replacer = new PageReplacer(capacity);
+        }
+    }
+
+
+    public enum StorageBackend {FILE_CHANNEL, MEMORY_MAPPED}
+    public interface PageLoader {
+        /**
+         * @param frame buffer to read the page into, null lets the loader provide its own buffer
+         */
+        ByteBuffer load(int pageIndex, ByteBuffer frame);
+        default ByteBuffer load(int pageIndex){return this.load(pageIndex, null);}
+        /**
+         * Starts reading the page and returns at once, stores able to read in the background override it
+         */
+        default CompletableFuture<ByteBuffer> loadAsync(int pageIndex, ByteBuffer frame){
+            try {
+                return CompletableFuture.completedFuture(this.load(pageIndex, frame));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+    }
+    public interface PageSaver {
+        void save(int pageIndex, ByteBuffer data);
+        /**
+         * Saves pages of consecutive numbers, stores able to do it in one I/O override it
+         */
+        default void saveRun(int firstPageIndex, ByteBuffer[] pages){
+            for (int i = 0; i < pages.length; i++) this.save(firstPageIndex + i, pages[i]);
+        }
+        void expandFileIfNeeded(int totalPage);
+        /**
+         * Forces the written pages to the storage device
+         */
+        void force();
+    }
+    public interface PageStore extends PageLoader, PageSaver, Closeable {@Override void close();}
 }
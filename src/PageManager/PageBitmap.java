@@ -0,0 +1,234 @@
+package PageManager;
+
+import Pages.BitmapPage;
+import Pages.Page;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Name of class: PageBitmap
+ * <p>
+ * Description: Tracks the pages of the file that are in use with one bit per page, kept on BitmapPages.
+ * Bitmap page k covers the pages from k * pagesCovered on, the first one is the page named by the header
+ * and each next one is the first page of its range. They stay in memory with a copy of the free pages,
+ * so allocation finds a page without reading anything.
+ * <p>
+ * A page is marked used in the log batch holding its first image, and pages are freed in a batch of their own,
+ * so after a crash no page in use is free. Pages handed out and not logged yet, and pages reserved for the extent
+ * of a chain, are only kept out of the search in memory: a crash gives them back.
+ * <p>
+ * The bitmap pages are changed under the lock, the caller logs the changed ones before releasing it
+ * <p>
+ * Version: 1.0
+ * <p>
+ * Date 10/18
+ * <p>
+ * Copyright: Semenov Egor
+ */
+
+public class PageBitmap {
+    private final int pagesCovered;
+    private final int firstBitmapPage;
+    private final List<BitmapPage> bitmapPages = new CopyOnWriteArrayList<>(); // read without the lock, appended when the file grows
+    private final BitSet available = new BitSet();                        // free, not handed out and not reserved
+    private final Set<Integer> handedOut = ConcurrentHashMap.newKeySet();   // owned pages waiting for their first log batch
+    private final Set<BitmapPage> changed = new LinkedHashSet<>();         // changed bitmap pages not logged yet
+    private volatile boolean hasChanges = false;
+    final Lock lock = new ReentrantLock();
+
+    /**
+     * @param bitmapPages cached bitmap pages, in range order
+     * @param totalPage number of the last page of the file
+     */
+    public PageBitmap(List<BitmapPage> bitmapPages, int firstBitmapPage, int totalPage, int pageSize) {
+        this.pagesCovered = BitmapPage.pagesCovered(pageSize);
+        this.firstBitmapPage = firstBitmapPage;
+        this.bitmapPages.addAll(bitmapPages);
+        for (int range = 0; range < this.bitmapPages.size(); range++) {
+            BitmapPage bitmapPage = this.bitmapPages.get(range);
+            int rangeStart = range * this.pagesCovered;
+            for (int word = 0; word < bitmapPage.getWordCount(); word++) {
+                long free = ~bitmapPage.getWord(word);
+                while (free != 0) {
+                    int pageIndex = rangeStart + word * 64 + Long.numberOfTrailingZeros(free);
+                    if (pageIndex > totalPage) break;
+                    this.available.set(pageIndex);
+                    free &= free - 1;
+                }
+            }
+        }
+    }
+
+    public int getPagesCovered() {
+        return this.pagesCovered;
+    }
+
+    /**
+     * @return true for the pages holding the bitmap, they must stay in memory
+     */
+    public boolean isBitmapPage(int pageIndex) {
+        return pageIndex == this.firstBitmapPage || (pageIndex > 0 && pageIndex % this.pagesCovered == 0);
+    }
+
+    /**
+     * @return true if the page is marked used on its bitmap page
+     */
+    public boolean isUsed(int pageIndex) {
+        int range = pageIndex / this.pagesCovered;
+        return range < this.bitmapPages.size() && this.bitmapPages.get(range).isUsed(pageIndex % this.pagesCovered);
+    }
+
+    /**
+     * Hands out the lowest free page
+     * @return its number or -1 if every page up to the end of the file is used
+     */
+    public int allocate() {
+        this.lock.lock();
+        try {
+            int pageIndex = this.available.nextSetBit(0);
+            if (pageIndex == -1) return -1;
+            this.available.clear(pageIndex);
+            this.handedOut.add(pageIndex);
+            return pageIndex;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves the lowest run of free pages that is long enough for an extent, its first page is handed out
+     * @param minPages shortest run accepted
+     * @param maxPages the run is cut to this length
+     * @return first and end page of the reserved run, or null if there is none
+     */
+    public int[] reserveRun(int minPages, int maxPages) {
+        this.lock.lock();
+        try {
+            for (int start = this.available.nextSetBit(0); start != -1; start = this.available.nextSetBit(start)) {
+                int end = this.available.nextClearBit(start);
+                if (end - start >= minPages) {
+                    end = Math.min(end, start + maxPages);
+                    this.available.clear(start, end);
+                    this.handedOut.add(start);
+                    return new int[]{start, end};
+                }
+                start = end;
+            }
+            return null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps pages out of the search, they belong to the extent of a chain
+     */
+    public void reserve(int start, int end) {
+        this.lock.lock();
+        try {
+            this.available.clear(start, end);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back reserved pages nobody used
+     */
+    public void unreserve(int start, int end) {
+        this.lock.lock();
+        try {
+            for (int pageIndex = start; pageIndex < end; pageIndex++) {
+                if (!this.handedOut.contains(pageIndex) && !this.isUsed(pageIndex)) this.available.set(pageIndex);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Hands out a reserved page or a page just added at the end of the file
+     */
+    public void handOut(int pageIndex) {
+        this.handedOut.add(pageIndex);
+    }
+
+    /**
+     * @return true if one of the pages was handed out and is logged for the first time, it must be marked used
+     */
+    public boolean needsMarking(List<Page> loggedPages) {
+        if (this.handedOut.isEmpty()) return false;
+        for (Page page : loggedPages) if (this.handedOut.contains(page.getPageNumber())) return true;
+        return false;
+    }
+
+    public boolean hasChanges() {
+        return this.hasChanges;
+    }
+
+    /**
+     * Marks used the handed out pages among the logged ones, must be called under the lock
+     */
+    void markUsed(List<Page> loggedPages) {
+        for (Page page : loggedPages) {
+            int pageIndex = page.getPageNumber();
+            if (this.handedOut.remove(pageIndex)) this.setUsed(pageIndex, true);
+        }
+    }
+
+    /**
+     * Marks the pages free, must be called under the lock. They are handed out again only after makeAvailable,
+     * once the caller logged the change and dropped their cached copies
+     */
+    void free(List<Integer> pageIndexes) {
+        for (int pageIndex : pageIndexes) {
+            this.handedOut.remove(pageIndex);
+            if (this.isUsed(pageIndex)) this.setUsed(pageIndex, false);
+        }
+    }
+
+    public void makeAvailable(List<Integer> pageIndexes) {
+        this.lock.lock();
+        try {
+            for (int pageIndex : pageIndexes) this.available.set(pageIndex);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the bitmap page of the next range, it is the first page of the range and marked used.
+     * Must be called under the lock
+     */
+    void addBitmapPage(BitmapPage bitmapPage) {
+        this.bitmapPages.add(bitmapPage);
+        this.setUsed(bitmapPage.getPageNumber(), true);
+    }
+
+    /**
+     * @return bitmap pages changed since the last call, must be called under the lock and logged before it is released
+     */
+    List<BitmapPage> takeChanged() {
+        List<BitmapPage> result = new ArrayList<>(this.changed);
+        this.changed.clear();
+        this.hasChanges = false;
+        return result;
+    }
+
+    private void setUsed(int pageIndex, boolean used) {
+        BitmapPage bitmapPage = this.bitmapPages.get(pageIndex / this.pagesCovered);
+        bitmapPage.lock(); // not while the flusher writes it
+        try {
+            bitmapPage.setLsn(MemoryManager.unloggedLsn); // the flusher waits for the log batch of the change
+            bitmapPage.setUsed(pageIndex % this.pagesCovered, used);
+        } finally {
+            bitmapPage.unlock();
+        }
+        this.changed.add(bitmapPage);
+        this.hasChanges = true;
+    }
+}
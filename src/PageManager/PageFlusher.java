@@ -0,0 +1,94 @@
+package PageManager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Name of class: PageFlusher
+ * <p>
+ * Description: Background thread that writes dirty pages back to the file, so releasing pages never waits for the disk.
+ * It wakes up at a fixed interval to write the pages that stayed dirty for too long,
+ * or at once when the memory manager reports that too much of the cache is dirty.
+ * After a round it lets the memory manager take a checkpoint if one is due.
+ * <p>
+ * Version: 1.0
+ * <p>
+ * Date 10/18
+ * <p>
+ * Copyright: Semenov Egor
+ */
+
+public class PageFlusher implements Runnable {
+    private final MemoryManager memoryManager;
+    private final long intervalMs;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final Lock wakeLock = new ReentrantLock();
+    private final Condition wakeUp = wakeLock.newCondition();
+    private boolean wakeRequested = false;
+
+    /**
+     * @param intervalMs time between two rounds when nobody asks for a flush
+     */
+    public PageFlusher(MemoryManager memoryManager, long intervalMs) {
+        this.memoryManager = memoryManager;
+        this.intervalMs = intervalMs;
+        this.thread = new Thread(this, "page-flusher");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        this.thread.start();
+    }
+
+    /**
+     * Asks for a round without waiting for it
+     */
+    public void wakeUp() {
+        this.wakeLock.lock();
+        try {
+            this.wakeRequested = true;
+            this.wakeUp.signal();
+        } finally {
+            this.wakeLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the thread once its current round is written, the remaining pages are left to MemoryManager.flushAll
+     */
+    public void stop() {
+        this.running = false;
+        this.wakeUp();
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (this.running) {
+            this.wakeLock.lock();
+            try {
+                if (!this.wakeRequested) this.wakeUp.await(this.intervalMs, TimeUnit.MILLISECONDS);
+                this.wakeRequested = false;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                this.wakeLock.unlock();
+            }
+            if (!this.running) return;
+            try {
+                this.memoryManager.writeBack();
+                this.memoryManager.checkpointIfDue();
+            } catch (RuntimeException e) {
+                System.out.println("page-flusher: write back failed, retrying on next round: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package PageManager;
+
+import Pages.Page;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Name of class: PageLockTable
+ * <p>
+ * Description: Hands the pages over to the threads waiting for them, with the wait queues split into partitions by page number.
+ * A thread that can't take a page waits at the end of its queue, and a thread giving the page up grants it
+ * to the head of the queue: to the first waiter, and to the readers that follow it when it only reads.
+ * Only the threads given the page are woken, they don't try again. A page is not taken past its queue, except by
+ * a thread that reads it already and now wants it exclusively, and by a reader that holds other pages: behind a writer
+ * that needs one of them later it would deadlock, both wait at the head of the queue.
+ * A release of a page nobody waits for takes no lock at all.
+ * <p>
+ * Holders are kept on the pages themselves (owner and sharers). A thread looks for a deadlock when its wait starts,
+ * and again every deadlockCheckMs while it lasts, for cycles closed by two waits at once: the wait-for graph is built
+ * from the waiting threads only, a waiter waits for the holders of its page and for the waiters ahead of it
+ * in the queue it can't go with. When the waiting thread is on a cycle one thread of the cycle gives up its request:
+ * one waiting to read if there is one, as it has nothing to undo, the one with the highest id among them.
+ * The thread that found the cycle wakes it.
+ * <p>
+ * Version: 2.0
+ * <p>
+ * Date 10/18
+ * <p>
+ * Copyright: Semenov Egor
+ */
+
+public class PageLockTable {
+    private static final int partitionNumber = 64; // power of two, a page is queued in partition pageNumber & (length - 1)
+    private static final long deadlockCheckMs = 50;
+
+    /**
+     * Result of a request for one page
+     */
+    public enum LockResult { ACQUIRED, HELD_ALREADY, EVICTED, BLOCKED, TIMED_OUT, DEADLOCK_VICTIM }
+
+    private static final class Waiter {
+        final Thread thread = Thread.currentThread();
+        final Page page;          // page waited for, its holders are edges of the wait-for graph
+        final boolean shared;
+        final Condition granted;
+        final List<Waiter> ahead; // waiters queued before it that it can't go with, none joins later
+        volatile boolean queued = true;
+        LockResult result = null; // set by the thread that hands the page over, under the partition lock
+
+        Waiter(Page page, boolean shared, Condition granted, List<Waiter> ahead) {
+            this.page = page;
+            this.shared = shared;
+            this.granted = granted;
+            this.ahead = ahead;
+        }
+    }
+
+    private static final class Partition {
+        final Lock lock = new ReentrantLock();
+        final Map<Integer, ArrayDeque<Waiter>> queues = new HashMap<>();
+        final AtomicInteger waiters = new AtomicInteger(); // read without the lock by releases
+    }
+
+    private final Partition[] partitions = new Partition[partitionNumber];
+    private final ConcurrentHashMap<Thread, Waiter> waiting = new ConcurrentHashMap<>();
+
+    public PageLockTable() {
+        for (int i = 0; i < partitionNumber; i++) this.partitions[i] = new Partition();
+    }
+
+    /**
+     * @return true if the thread can't take the page in the given mode because another thread holds it
+     */
+    public static boolean conflicts(Page page, Thread thread, boolean shared) {
+        Thread owner = page.getOwner();
+        if (owner != null && owner != thread) return true;
+        return !shared && page.isSharedByOthers(thread);
+    }
+
+    /**
+     * Takes the page for the current thread if it is free, without waiting
+     * @param page cached copy of the page, the holders are set on it
+     * @param holdsPages the thread holds other pages, a read goes past the queued writers
+     * @return BLOCKED if another thread holds the page or waits for it first
+     */
+    public LockResult tryLock(Page page, boolean shared, boolean holdsPages) {
+        Thread currentThread = Thread.currentThread();
+        if (page.getOwner() == currentThread || (shared && page.getSharers().contains(currentThread))) return LockResult.HELD_ALREADY;
+        Partition partition = this.partitionOf(page.getPageNumber());
+        LockResult result = null;
+        if (partition.waiters.get() == 0) {
+            // Nobody queued in the partition, no order to keep
+            result = PageLockTable.tryTake(page, currentThread, shared);
+        } else {
+            partition.lock.lock();
+            try {
+                ArrayDeque<Waiter> queue = partition.queues.get(page.getPageNumber());
+                if (queue == null || queue.isEmpty() || PageLockTable.goesFirst(page, shared, holdsPages)) {
+                    result = PageLockTable.tryTake(page, currentThread, shared);
+                }
+            } finally {
+                partition.lock.unlock();
+            }
+        }
+        return (result == null) ? LockResult.BLOCKED : result;
+    }
+
+    /**
+     * Takes the page for the current thread, or waits in its queue until it is handed over
+     * @param page cached copy of the page, the holders are set on it
+     * @param timeoutMs the wait ends after this time, -1 to wait until the page is granted
+     * @param holdsPages the thread holds other pages, a read goes past the queued writers
+     * @return ACQUIRED or HELD_ALREADY if the thread holds the page in the given mode, EVICTED if the copy is no longer
+     * cached and must be read again, otherwise the thread doesn't hold the page
+     * @throws InterruptedException if the thread was interrupted while waiting, it doesn't hold the page
+     */
+    public LockResult lock(Page page, boolean shared, long timeoutMs, boolean holdsPages) throws InterruptedException {
+        LockResult tried = this.tryLock(page, shared, holdsPages);
+        if (tried != LockResult.BLOCKED) return tried;
+        Thread currentThread = Thread.currentThread();
+        Partition partition = this.partitionOf(page.getPageNumber());
+
+        partition.lock.lock();
+        partition.waiters.incrementAndGet(); // before the check, a release either sees it or is seen by the check
+        ArrayDeque<Waiter> queue = partition.queues.computeIfAbsent(page.getPageNumber(), pageNumber -> new ArrayDeque<>());
+        Waiter waiter = null;
+        try {
+            boolean first = PageLockTable.goesFirst(page, shared, holdsPages);
+            if (queue.isEmpty() || first) {
+                LockResult result = PageLockTable.tryTake(page, currentThread, shared);
+                if (result != null) return result;
+            }
+            waiter = new Waiter(page, shared, partition.lock.newCondition(), first ? List.of() : PageLockTable.conflictingWaiters(queue, shared));
+            // Behind the others an upgrade would wait for its own share, a reader for a writer needing its pages
+            if (first) queue.addFirst(waiter);
+            else queue.addLast(waiter);
+            this.waiting.put(currentThread, waiter);
+
+            long deadline = (timeoutMs < 0) ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            boolean check = true;
+            while (waiter.result == null) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) return LockResult.TIMED_OUT;
+                if (check) {
+                    check = false;
+                    Waiter victim;
+                    partition.lock.unlock(); // the graph is read without holding a partition
+                    try {
+                        victim = this.findDeadlockVictim(waiter);
+                        if (victim != null && victim != waiter) this.abort(victim);
+                    } finally {
+                        partition.lock.lock();
+                    }
+                    if (victim == waiter && waiter.result == null) return LockResult.DEADLOCK_VICTIM;
+                    continue;
+                }
+                long untilCheck = TimeUnit.MILLISECONDS.toNanos(deadlockCheckMs);
+                if (left > untilCheck) {
+                    waiter.granted.awaitNanos(untilCheck);
+                    check = true;
+                } else waiter.granted.awaitNanos(left);
+            }
+            return waiter.result;
+        } catch (InterruptedException e) {
+            if (waiter.result == LockResult.ACQUIRED) {
+                // Granted just before the interrupt, the page goes on to the next waiters
+                page.lock();
+                try {
+                    if (shared) page.removeSharer(currentThread);
+                    else page.setOwner(null);
+                } finally {
+                    page.unlock();
+                }
+                PageLockTable.handOver(queue, page);
+            }
+            throw e;
+        } finally {
+            if (waiter != null) {
+                this.waiting.remove(currentThread);
+                if (waiter.queued) {
+                    // Leaving without the page, the waiters behind may be able to go now
+                    queue.remove(waiter);
+                    waiter.queued = false;
+                    PageLockTable.handOver(queue, page);
+                }
+            }
+            if (queue.isEmpty() && partition.queues.get(page.getPageNumber()) == queue) partition.queues.remove(page.getPageNumber());
+            partition.waiters.decrementAndGet();
+            partition.lock.unlock();
+        }
+    }
+
+    /**
+     * Hands the page over to the head of its queue, must be called after the holder giving it up was cleared
+     * @param page cached copy of the page
+     */
+    public void released(Page page) {
+        Partition partition = this.partitionOf(page.getPageNumber());
+        if (partition.waiters.get() == 0) return;
+        partition.lock.lock();
+        try {
+            ArrayDeque<Waiter> queue = partition.queues.get(page.getPageNumber());
+            if (queue != null) PageLockTable.handOver(queue, page);
+        } finally {
+            partition.lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the page if no other thread holds it in a conflicting mode
+     * @return ACQUIRED, EVICTED or null if it is held
+     */
+    private static LockResult tryTake(Page page, Thread thread, boolean shared) {
+        page.lock(); // against the eviction of the page
+        try {
+            if (page.isEvicted()) return LockResult.EVICTED;
+            if (PageLockTable.conflicts(page, thread, shared)) return null;
+            if (shared) page.addSharer(thread);
+            else page.setOwner(thread);
+            return LockResult.ACQUIRED;
+        } finally {
+            page.unlock();
+        }
+    }
+
+    /**
+     * @return true if the current thread doesn't wait behind the queue of the page:
+     * it reads the page and wants it exclusively now, or it reads the page and holds other pages
+     */
+    private static boolean goesFirst(Page page, boolean shared, boolean holdsPages) {
+        return shared ? holdsPages : page.getSharers().contains(Thread.currentThread());
+    }
+
+    /**
+     * Grants the page to the waiters at the head of its queue that can take it, must be called under the partition lock
+     */
+    private static void handOver(ArrayDeque<Waiter> queue, Page page) {
+        if (queue.isEmpty()) return;
+        page.lock();
+        try {
+            if (page.isEvicted()) {
+                // Swapped out between the release and the hand-over, everyone reads it again
+                for (Waiter waiter : queue) PageLockTable.wake(waiter, LockResult.EVICTED);
+                queue.clear();
+                return;
+            }
+            while (!queue.isEmpty()) {
+                Waiter head = queue.peekFirst();
+                if (PageLockTable.conflicts(page, head.thread, head.shared)) return;
+                if (head.shared) page.addSharer(head.thread);
+                else page.setOwner(head.thread);
+                queue.pollFirst();
+                PageLockTable.wake(head, LockResult.ACQUIRED);
+            }
+        } finally {
+            page.unlock();
+        }
+    }
+
+    private static void wake(Waiter waiter, LockResult result) {
+        waiter.queued = false;
+        waiter.result = result;
+        waiter.granted.signal();
+    }
+
+    /**
+     * @return waiters of the queue a new waiter can't be granted the page with
+     */
+    private static List<Waiter> conflictingWaiters(ArrayDeque<Waiter> queue, boolean shared) {
+        List<Waiter> conflicting = new ArrayList<>();
+        for (Waiter waiter : queue) {
+            if (!shared || !waiter.shared) conflicting.add(waiter);
+        }
+        return conflicting;
+    }
+
+    /**
+     * Looks for a cycle of waits through the given waiter
+     * @return waiter of the cycle to give up, null if there is none
+     */
+    private Waiter findDeadlockVictim(Waiter start) {
+        Map<Thread, Waiter> waits = new HashMap<>(this.waiting);
+        Map<Thread, Thread> parent = new HashMap<>(); // thread -> thread waiting for it, on the path from the start
+        Deque<Thread> stack = new ArrayDeque<>();
+        stack.push(start.thread);
+        parent.put(start.thread, null);
+        while (!stack.isEmpty()) {
+            Thread thread = stack.pop();
+            Waiter waiter = waits.get(thread);
+            if (waiter == null) continue; // running, it will release its pages
+            for (Thread holder : PageLockTable.holders(waiter)) {
+                if (holder == start.thread) return this.pickVictim(start, thread, parent, waits);
+                if (parent.containsKey(holder)) continue;
+                parent.put(holder, thread);
+                stack.push(holder);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks the found cycle is still there and picks its victim, every thread of the cycle picks the same one
+     * @param last thread of the cycle waiting for the start
+     */
+    private Waiter pickVictim(Waiter start, Thread last, Map<Thread, Thread> parent, Map<Thread, Waiter> waits) {
+        Waiter victim = start;
+        for (Thread thread = last; thread != null; thread = parent.get(thread)) {
+            Waiter waiter = waits.get(thread);
+            if (this.waiting.get(thread) != waiter) return null; // it moved on, the cycle is gone
+            if (waiter.shared != victim.shared ? waiter.shared : waiter.thread.getId() > victim.thread.getId()) victim = waiter;
+        }
+        return victim;
+    }
+
+    /**
+     * Takes the victim of a deadlock out of its queue and wakes it, unless it got its page meanwhile
+     */
+    private void abort(Waiter victim) {
+        Partition partition = this.partitionOf(victim.page.getPageNumber());
+        partition.lock.lock();
+        try {
+            if (!victim.queued) return;
+            ArrayDeque<Waiter> queue = partition.queues.get(victim.page.getPageNumber());
+            queue.remove(victim);
+            PageLockTable.wake(victim, LockResult.DEADLOCK_VICTIM);
+            PageLockTable.handOver(queue, victim.page);
+        } finally {
+            partition.lock.unlock();
+        }
+    }
+
+    /**
+     * Threads the waiter waits for: the owner of its page, its sharers if it wants the page exclusively,
+     * and the waiters still queued ahead of it that it can't go with
+     */
+    private static List<Thread> holders(Waiter waiter) {
+        List<Thread> holders = new ArrayList<>();
+        Thread owner = waiter.page.getOwner();
+        if (owner != null && owner != waiter.thread) holders.add(owner);
+        if (!waiter.shared) {
+            for (Thread sharer : waiter.page.getSharers()) {
+                if (sharer != waiter.thread) holders.add(sharer);
+            }
+        }
+        for (Waiter ahead : waiter.ahead) {
+            if (ahead.queued) holders.add(ahead.thread);
+        }
+        return holders;
+    }
+
+    private Partition partitionOf(int pageNumber) {
+        return this.partitions[pageNumber & (partitionNumber - 1)];
+    }
+}
@@ -3,15 +3,20 @@ package PageManager;
 import Pages.Page;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Name of class: PageManager
  * <p>
  * Description: Prevents from deadlock situations using graph algorithms, watch dogs, and sorts pages by index.
+ * A thread takes the pages of a request in page order, when one is held by another thread it gives back the ones
+ * taken so far and waits in the queue of that page until the release hands it over (see PageLockTable),
+ * the others are then taken around it. Deadlocks are only looked for when such a wait lasts,
+ * the thread chosen to break one gets no pages.
+ * <p>
+ * A page is held either exclusively by one thread, to change it, or in shared mode by any number of threads
+ * that only read it. A thread holding a page exclusively may also ask for it in shared mode,
+ * and a thread that is its only sharer may take it exclusively.
  * <p>
  * Version: 3.0
  * <p>
@@ -21,19 +26,15 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 
 public class PageManager {
-    private final Map<Thread, Set<Page>> threadToResourcesHeld;
-    private final Map<Thread, Set<Page>> threadToResourcesWaiting;
-
-    // To synchronize access to the graph
-    private final Lock graphLock = new ReentrantLock();
-
-    // Condition for notification of waiting flows
-    private final Condition resourceReleased = graphLock.newCondition();
+    private final Map<Thread, Set<Page>> threadToResourcesHeld; // each set is only used by its thread
+    private final PageLockTable lockTable = new PageLockTable();
+    // Page a thread gave up to break a deadlock, its next request waits for its release so the other side goes first
+    private final ThreadLocal<BackOff> backOffs = new ThreadLocal<>();
+    private record BackOff(Page page, boolean shared) {}
     public final MemoryManager memoryManager;
 
     public PageManager(MemoryManager memoryManager) {
-        this.threadToResourcesHeld = new HashMap<>();
-        this.threadToResourcesWaiting = new HashMap<>();
+        this.threadToResourcesHeld = new ConcurrentHashMap<>();
         this.memoryManager = memoryManager;
     }
 
@@ -41,65 +42,114 @@ public class PageManager {
      * Request for multiple resources with deadlock and retry prevention
      * @param requestedResourcesIndexes list of requested page indexes
      * @param maxRetries maximum number of retries (-1 for infinite retries)
-     * @param retryDelayMs delay between retries in milliseconds
-     * @return List<Page> which can be used later on higher levels
+     * @param retryDelayMs longest wait for a page before trying again, in milliseconds
+     * @param sequentialScan the pages are part of a walk over a whole chain (see MemoryManager.indexesToPages)
+     * @param shared the pages are only read, other readers may hold them at the same time
+     * @return List<Page> which can be used later on higher levels, null if the retries ran out or the request broke a deadlock
      * @throws InterruptedException if the thread was interrupted while waiting
      */
-    public List<Page> acquireResources(List<Integer> requestedResourcesIndexes, int maxRetries, long retryDelayMs) throws InterruptedException{
-        List<Page> requestedResources = this.memoryManager.indexesToPages(requestedResourcesIndexes);
-        if (this.acquireResourcePrivate(requestedResources, maxRetries, retryDelayMs)) return requestedResources;
+    public List<Page> acquireResources(List<Integer> requestedResourcesIndexes, int maxRetries, long retryDelayMs, boolean sequentialScan, boolean shared) throws InterruptedException{
+        List<Page> requestedResources = this.memoryManager.indexesToPages(requestedResourcesIndexes, sequentialScan);
+        if (this.acquireResourcePrivate(requestedResources, maxRetries, retryDelayMs, shared)) return requestedResources;
         return null;
     }
 
-    private boolean acquireResourcePrivate(List<Page> requestedResources, int maxRetries, long retryDelayMs) throws InterruptedException {
+    public List<Page> acquireResources(List<Integer> requestedResourcesIndexes, int maxRetries, long retryDelayMs, boolean sequentialScan) throws InterruptedException{
+        return this.acquireResources(requestedResourcesIndexes, maxRetries, retryDelayMs, sequentialScan, false);
+    }
+
+    private boolean acquireResourcePrivate(List<Page> requestedResources, int maxRetries, long retryDelayMs, boolean shared) throws InterruptedException {
         Thread currentThread = Thread.currentThread(); //save the current thread
 
         // Sort resources by ID to prevent deadlock (resource ordering strategy)
         requestedResources.sort(Comparator.comparingInt(Page::getPageNumber));
 
-        int retries = 0;
-        boolean acquired = false; // while haven't gotten
-
-        while (!acquired && (maxRetries == -1 || retries <= maxRetries)) {
-            if (retries > 0) {System.out.println(currentThread.getName() + ": retry #" + retries +
-                    " to get resources " + this.formatResourceIds(requestedResources));
+        BackOff backOff = this.backOffs.get();
+        if (backOff != null && !this.threadToResourcesHeld.containsKey(currentThread)) {
+            // Holding nothing, the thread queues up behind the other side and lets the page go at once
+            this.backOffs.remove();
+            Page page = backOff.page();
+            if (this.lockTable.lock(page, backOff.shared(), (maxRetries == -1) ? -1 : retryDelayMs, false) == PageLockTable.LockResult.ACQUIRED) {
+                this.giveBack(List.of(page), backOff.shared());
             }
+        }
 
-            acquired = this.tryAcquireResources(requestedResources); //try to get resources, returns status
-
-            if (!acquired) { //if we didn't get
-                if (maxRetries == -1 || retries < maxRetries) {
-                    // Wait for a signal from other threads to release resources or use timeout
-                    this.graphLock.lock();
-                    try {
-                        // Register the thread as waiting for these resources
-                        this.threadToResourcesWaiting.putIfAbsent(currentThread, new HashSet<>());
-                        this.threadToResourcesWaiting.get(currentThread).addAll(requestedResources);
-
-                        // Waiting for a signal, but with a timeout.
-                        this.resourceReleased.await(retryDelayMs, TimeUnit.MILLISECONDS);
-
-                        // We remove from the waiting list for correct operation of the loop detection algorithm
-                        // this.threadToResourcesWaiting.get(currentThread).removeAll(requestedResources);
-                        requestedResources.forEach(this.threadToResourcesWaiting.get(currentThread)::remove);
-                    } finally {
-                        this.graphLock.unlock();
+        // Pages of this request, given back while it waits so the wait closes no cycle through them
+        List<Page> taken = new ArrayList<>();
+        boolean holdsPages = this.threadToResourcesHeld.containsKey(currentThread);
+        int retries = 0;
+        try {
+            while (true) {
+                Page blockingPage = null;
+                for (int i = 0; i < requestedResources.size() && blockingPage == null; i++) {
+                    Page page = requestedResources.get(i);
+                    PageLockTable.LockResult result = this.lockTable.tryLock(page, shared, holdsPages || !taken.isEmpty());
+                    if (result == PageLockTable.LockResult.ACQUIRED) taken.add(page);
+                    else if (result == PageLockTable.LockResult.BLOCKED) blockingPage = page;
+                    else if (result == PageLockTable.LockResult.EVICTED) {
+                        // Swapped out since the lookup, take the fresh copies and ask again
+                        this.reloadEvictedPages(requestedResources);
+                        i--;
                     }
-                    retries++;
-                } else {
-                    // We've exhausted all attempts
-                    break;
+                }
+                if (blockingPage == null) break;
+                this.giveBack(taken, shared);
+                taken.clear();
+
+                // We've exhausted all attempts
+                if (maxRetries != -1 && retries >= maxRetries) return false;
+                retries++;
+
+                // Wait in the queue of the page that stopped us, its release hands it over and the others are taken around it
+                PageLockTable.LockResult result = this.lockTable.lock(blockingPage, shared, (maxRetries == -1) ? -1 : retryDelayMs, holdsPages);
+                if (result == PageLockTable.LockResult.ACQUIRED) taken.add(blockingPage);
+                else if (result == PageLockTable.LockResult.DEADLOCK_VICTIM) {
+                    System.out.println(currentThread.getName() + ": gives up resources " + this.formatResourceIds(requestedResources) + " to break a deadlock");
+                    this.backOffs.set(new BackOff(blockingPage, shared));
+                    return false;
                 }
             }
+        } catch (InterruptedException e) {
+            this.giveBack(taken, shared);
+            throw e;
+        }
+        // adding the received resources to the ones held by the thread
+        this.threadToResourcesHeld.computeIfAbsent(currentThread, thread -> new HashSet<>()).addAll(requestedResources);
+        return true;
+    }
+
+    /**
+     * Gives up the pages taken by a request that failed, they are unchanged
+     */
+    private void giveBack(List<Page> takenPages, boolean shared) {
+        Thread currentThread = Thread.currentThread();
+        for (Page page : takenPages) {
+            // A shared hold of ours from before an exclusive request stays
+            if (shared) page.removeSharer(currentThread);
+            else page.setOwner(null);
+            this.lockTable.released(page);
         }
-        return acquired;
     }
 
     /**
      * A simplified version of the method for obtaining resources with infinite attempts
      */
     public List<Page> acquireResources(List<Integer> requestedResourcesIndexes) throws InterruptedException {
-        return this.acquireResources(requestedResourcesIndexes, -1, 500);
+        return this.acquireResources(requestedResourcesIndexes, -1, 500, false);
+    }
+
+    /**
+     * Same with infinite attempts, for the pages of a chain walk
+     */
+    public List<Page> acquireResources(List<Integer> requestedResourcesIndexes, boolean sequentialScan) throws InterruptedException {
+        return this.acquireResources(requestedResourcesIndexes, -1, 500, sequentialScan);
+    }
+
+    /**
+     * Same with infinite attempts, in shared or exclusive mode
+     */
+    public List<Page> acquireResources(List<Integer> requestedResourcesIndexes, boolean sequentialScan, boolean shared) throws InterruptedException {
+        return this.acquireResources(requestedResourcesIndexes, -1, 500, sequentialScan, shared);
     }
 
     /**
@@ -107,72 +157,27 @@ public class PageManager {
      */
     public List<Page> acquireResourcesWithTimeout(List<Integer> requestedResourcesIndexes, int maxRetries, long timeoutMs)
             throws InterruptedException {
-        return this.acquireResources(requestedResourcesIndexes, maxRetries, timeoutMs / (maxRetries + 1));
+        return this.acquireResources(requestedResourcesIndexes, maxRetries, timeoutMs / (maxRetries + 1), false);
     }
 
     /**
-     * Internal method for a one-time attempt to obtain all resources
+     * Replaces the pages that were evicted between their lookup and their acquisition by their current copy
+     * @return true if at least one page was replaced
      */
-    private boolean tryAcquireResources(List<Page> requestedPages) {
-        Thread currentThread = Thread.currentThread();
-
-        this.graphLock.lock();
-        try {
-            // Register a thread if it is not already registered
-            this.threadToResourcesHeld.putIfAbsent(currentThread, new HashSet<>());
-
-            // Checks if a loop (deadlock) will not form if it adds these expectations
-            if (this.wouldFormCycle(currentThread, requestedPages)) {
-                // If a loop is formed, deny the request
-                return false;
+    private boolean reloadEvictedPages(List<Page> requestedPages) {
+        List<Integer> positions = new ArrayList<>();
+        List<Integer> evictedIndexes = new ArrayList<>();
+        for (int i = 0; i < requestedPages.size(); i++) {
+            if (requestedPages.get(i).isEvicted()) {
+                positions.add(i);
+                evictedIndexes.add(requestedPages.get(i).getPageNumber());
             }
-        } finally {
-            graphLock.unlock();
         }
-
-        boolean acquired = true;
-        List<Page> acquiredResources = new ArrayList<>();
-
-        try {
-            // Trying to grab resources one at a time
-            for (Page page : requestedPages) {
-                page.lock();
-                if (page.getOwner() != null && page.getOwner() != currentThread) {
-                    // The resource has already been taken up by another thread
-                    acquired = false;
-                    break;
-                }
-                if (page.getOwner() != currentThread) {
-                    // Capture only those resources we don't already own
-                    page.setOwner(currentThread);
-                    acquiredResources.add(page);
-                }
-            }
-        } finally {
-            if (!acquired) {
-                // If it was not possible to get all the resources, release the resources already obtained
-                for (Page page : acquiredResources) {
-                    page.setOwner(null);
-                    page.unlock();
-                }
-            } else {
-                // If successful, we release only the locks, retaining possession of the resources
-                for (Page page : requestedPages) {
-                    page.unlock();
-                }
-            }
-            // adding the received resources to the graph
-            if (acquired) {
-                this.graphLock.lock();
-                try {
-                    this.threadToResourcesHeld.get(currentThread).addAll(requestedPages);
-                } finally {
-                    this.graphLock.unlock();
-                }
-            }
-        }
-
-        return acquired;
+        if (evictedIndexes.isEmpty()) return false;
+        // Read together, like the first request
+        List<Page> reloadedPages = this.memoryManager.indexesToPages(evictedIndexes);
+        for (int i = 0; i < positions.size(); i++) requestedPages.set(positions.get(i), reloadedPages.get(i));
+        return true;
     }
 
     /**
@@ -180,50 +185,49 @@ public class PageManager {
      * @param additionalPagesIndexes list of additional resources to get
      * @param maxRetries maximum number of retries
      * @param retryDelayMs delay between retries in milliseconds
+     * @param sequentialScan the pages are part of a walk over a whole chain
+     * @param shared the additional pages are only read
      * @return List of additional pages if additional resources were successfully retrieved
      * @throws InterruptedException if the thread was interrupted while waiting
      */
-    public List<Page> expandResourceZone(List<Integer> additionalPagesIndexes, int maxRetries, long retryDelayMs)
+    public List<Page> expandResourceZone(List<Integer> additionalPagesIndexes, int maxRetries, long retryDelayMs, boolean sequentialScan, boolean shared)
             throws InterruptedException {
-        List<Page> additionalPages = this.memoryManager.indexesToPages(additionalPagesIndexes);
+        List<Page> additionalPages = this.memoryManager.indexesToPages(additionalPagesIndexes, sequentialScan);
 
         Thread currentThread = Thread.currentThread();
         List<Page> actuallyNeeded = new ArrayList<>();
 
-        this.graphLock.lock();
-        Set<Page> currentlyHeld;
-        try {
-            // Check if the thread already has any resources
-            currentlyHeld = this.threadToResourcesHeld.getOrDefault(currentThread, new HashSet<>());
-            if (currentlyHeld.isEmpty()) {
-                System.out.println(currentThread.getName() + ": attempting to expand the zone without owning the resources");
-                return null; // exception may be needed
-            }
-//            System.out.println("Currently held: " + currentlyHeld + "\n");
-            // Remove from the list of requested resources those resources that the thread is already holding
+        // Check if the thread already has any resources
+        Set<Page> currentlyHeld = this.threadToResourcesHeld.getOrDefault(currentThread, new HashSet<>());
+        if (currentlyHeld.isEmpty()) {
+            System.out.println(currentThread.getName() + ": attempting to expand the zone without owning the resources");
+            return null; // exception may be needed
+        }
+//        System.out.println("Currently held: " + currentlyHeld + "\n");
+        // Remove from the list of requested resources those resources that the thread is already holding
 
-            for (Page page : additionalPages) {
-                if (!currentlyHeld.contains(page)) {
-                    actuallyNeeded.add(page);
-                }
+        for (Page page : additionalPages) {
+            if (shared ? !currentlyHeld.contains(page) : page.getOwner() != currentThread) {
+                actuallyNeeded.add(page);
             }
+        }
 
-            if (actuallyNeeded.isEmpty()) {
-                // All requested resources already belong to the stream
-                return additionalPages;
-            }
+        if (actuallyNeeded.isEmpty()) {
+            // All requested resources already belong to the stream
+            return additionalPages;
+        }
 
-            // Sort by ID to prevent deadlocks
-            actuallyNeeded.sort(Comparator.comparingInt(Page::getPageNumber));
+        // Sort by ID to prevent deadlocks
+        actuallyNeeded.sort(Comparator.comparingInt(Page::getPageNumber));
 
-            System.out.println(currentThread.getName() + ": zone expansion, additional resources required " +
-                    this.formatResourceIds(actuallyNeeded));
-        } finally {
-            this.graphLock.unlock();
-        }
+        System.out.println(currentThread.getName() + ": zone expansion, additional resources required " +
+                this.formatResourceIds(actuallyNeeded));
 
         // Use the standard method to obtain additional resources
-        if(this.acquireResourcePrivate(actuallyNeeded, maxRetries, retryDelayMs)) return additionalPages;
+        if(this.acquireResourcePrivate(actuallyNeeded, maxRetries, retryDelayMs, shared)) {
+            this.reloadEvictedPages(additionalPages);
+            return additionalPages;
+        }
         return null;
     }
 
@@ -231,20 +235,35 @@ public class PageManager {
      * Simplified version of the resource zone extension method with infinite attempts
      */
     public List<Page> expandResourceZone(List<Integer> additionalResourcesIndexes) throws InterruptedException {
-        return this.expandResourceZone(additionalResourcesIndexes, -1, 500);
+        return this.expandResourceZone(additionalResourcesIndexes, -1, 500, false, false);
+    }
+
+    /**
+     * Same with infinite attempts, for the pages of a chain walk
+     */
+    public List<Page> expandResourceZone(List<Integer> additionalResourcesIndexes, boolean sequentialScan) throws InterruptedException {
+        return this.expandResourceZone(additionalResourcesIndexes, -1, 500, sequentialScan, false);
+    }
+
+    /**
+     * Same with infinite attempts, in shared or exclusive mode
+     */
+    public List<Page> expandResourceZone(List<Integer> additionalResourcesIndexes, boolean sequentialScan, boolean shared) throws InterruptedException {
+        return this.expandResourceZone(additionalResourcesIndexes, -1, 500, sequentialScan, shared);
     }
 
 
 
     public void releasePages(List<Integer> resourcesToReleaseIndexes){
         List<Page> resourcesToRelease = this.memoryManager.indexesToPages(resourcesToReleaseIndexes);
-        this.releasePagesInternal(resourcesToRelease);
+        this.releasePagesInternal(resourcesToRelease, true);
     }
     /**
      * Resource Release
      * @param resourcesToRelease list of page indexes to release
+     * @param commit false for deleted pages, their changes are dropped
      */
-    private void releasePagesInternal(List<Page> resourcesToRelease) {
+    private void releasePagesInternal(List<Page> resourcesToRelease, boolean commit) {
         Thread currentThread = Thread.currentThread();
 
         // Create a copy of the list to avoid problems during modification
@@ -253,34 +272,42 @@ public class PageManager {
         // Sort resources by ID to maintain the same order of locks capture
         resourceCopy.sort(Comparator.comparingInt(Page::getPageNumber));
 
+        // Log the changes while the pages are still ours, commits of other threads share the same force
+        if (commit) {
+            List<Page> changedPages = new ArrayList<>();
+            for (Page page : resourceCopy) {
+                if (page.getOwner() == currentThread && page.isDirty()) changedPages.add(page);
+            }
+            this.memoryManager.commit(changedPages);
+        }
+
         // First release all resource locks
         for (Page page : resourceCopy) {
 //            resource.lock.lock();
             try {
+                // Hand the changes over before giving the page up, the next owner may dirty it again
+                if (page.isDirty()) {
+                    this.memoryManager.markDirty(page.getPageNumber());
+                    if (page.getOwner() == currentThread) page.clearDirty();
+                }
                 if (page.getOwner() == currentThread) {
                     page.setOwner(null);
                 }
-                if (page.isDirty()) this.memoryManager.markDirty(page.getPageNumber());
+                page.removeSharer(currentThread);
             } finally {
 //                resource.lock.unlock();
             }
+            // Handed over to the next waiters, only they are woken
+            this.lockTable.released(page);
         }
 
-        // Update the data structures under graphLock
-        this.graphLock.lock();
-        try {
-            Set<Page> heldResources = this.threadToResourcesHeld.get(currentThread);
-            if (heldResources != null) {
-                resourceCopy.forEach(heldResources::remove);
-                if (heldResources.isEmpty()) {
-                    this.threadToResourcesHeld.remove(currentThread);
-                }
-                this.resourceReleased.signalAll();
+        Set<Page> heldResources = this.threadToResourcesHeld.get(currentThread);
+        if (heldResources != null) {
+            resourceCopy.forEach(heldResources::remove);
+            if (heldResources.isEmpty()) {
+                this.threadToResourcesHeld.remove(currentThread);
             }
-        } finally {
-            this.graphLock.unlock();
         }
-        this.memoryManager.flushAll();
     }
 
     /**
@@ -289,15 +316,10 @@ public class PageManager {
     public void releaseAllPages() {
         Thread currentThread = Thread.currentThread();
 
-        this.graphLock.lock();
-        try {
-            List<Page> resourcesToRelease = this.getHeldResources();
-            if (!resourcesToRelease.isEmpty()) {
-                System.out.println(currentThread.getName() + ": frees up all resources " + this.formatResourceIds(resourcesToRelease));
-                this.releasePagesInternal(resourcesToRelease);
-            }
-        } finally {
-            graphLock.unlock();
+        List<Page> resourcesToRelease = this.getHeldResources();
+        if (!resourcesToRelease.isEmpty()) {
+            System.out.println(currentThread.getName() + ": frees up all resources " + this.formatResourceIds(resourcesToRelease));
+            this.releasePagesInternal(resourcesToRelease, true);
         }
     }
 
@@ -308,10 +330,15 @@ public class PageManager {
         for(Page page : pagesToDelete){
             if(page.getOwner() != currentThread) throw new RuntimeException("Trying to delete page " + page.getPageNumber() + " that doesn't belong to this thread");
         }
-        for(Page page : pagesToDelete){
-            this.memoryManager.deletePage(page);
-        }
-        this.releasePagesInternal(pagesToDelete);
+        this.memoryManager.freePages(pagesToDelete); // one log batch for the whole list
+        this.releasePagesInternal(pagesToDelete, false);
+    }
+
+    /**
+     * Forgets a chain whose pages were deleted, the pages reserved for it and not used become free again
+     */
+    public void dropChain(int firstPage) {
+        this.memoryManager.dropChain(firstPage);
     }
 
     public void exchangePage(Page oldPage, Page newPage) {
@@ -320,148 +347,30 @@ public class PageManager {
             throw new RuntimeException("Trying to exchange page " + oldPage.getPageNumber() +
                     " that doesn't belong to this thread");
         }
-        this.graphLock.lock();
-        try {
-            Set<Page> heldResources = this.threadToResourcesHeld.get(currentThread);
-            if (heldResources != null) {
-                heldResources.remove(oldPage);
-                heldResources.add(newPage);
-            }
-            newPage.setOwner(currentThread);
-            oldPage.setOwner(null);
-            this.memoryManager.exchangePage(newPage);
-        } finally {
-            this.graphLock.unlock();
+        Set<Page> heldResources = this.threadToResourcesHeld.get(currentThread);
+        if (heldResources != null) {
+            heldResources.remove(oldPage);
+            heldResources.add(newPage);
         }
+        newPage.setOwner(currentThread);
+        // Cache the new page before disowning the old one, otherwise the shared frame could be evicted in between
+        this.memoryManager.exchangePage(newPage);
+        oldPage.setOwner(null);
     }
 
     /**
-     * Checks if a loop (deadlock) is formed when new waits are added
-     * @param requestingThread thread requesting resources
-     * @param requestedPages requested resources
-     * @return true if a loop is formed
+     * Free slots of the table chains, shared by every thread
      */
-    private boolean wouldFormCycle(Thread requestingThread, List<Page> requestedPages) {
-        // Create a temporary copy of the graph with new expectations
-        Map<Thread, Set<Thread>> waitForGraph = this.buildWaitForGraph();
-
-        // For each requested resource we check if it is not occupied by another thread
-        for (Page page : requestedPages) {
-            if (page.getOwner() != null && page.getOwner() != requestingThread) {
-                // Add an edge to the graph: the current thread is waiting for the owner of the resource
-                waitForGraph.putIfAbsent(requestingThread, new HashSet<>());
-                waitForGraph.get(requestingThread).add(page.getOwner());
-            }
-        }
-
-        // Check if there is a cycle in the graph
-        return this.hasCycle(waitForGraph);
-    }
-
-    /**
-     * Constructs the expectation graph between threads (who is waiting for whom)
-     * @return expectation graph as Map<Thread, Set<Thread>>>
-     */
-    private Map<Thread, Set<Thread>> buildWaitForGraph() {
-        Map<Thread, Set<Thread>> waitForGraph = new HashMap<>();
-
-        // For each thread, we check what resources it expects to receive
-        for (Map.Entry<Thread, Set<Page>> entry : this.threadToResourcesWaiting.entrySet()) {
-            Thread waitingThread = entry.getKey();
-            Set<Page> waitingPages = entry.getValue();
-
-            waitForGraph.putIfAbsent(waitingThread, new HashSet<>());
-
-            // For each pending resource, if it has an owner,
-            // add an edge: waiting thread -> resource owner
-            for (Page page : waitingPages) {
-                if (page.getOwner()!= null && page.getOwner() != waitingThread) {
-                    waitForGraph.get(waitingThread).add(page.getOwner());
-                }
-            }
-        }
-
-        // Add edges based on retained resources
-        for (Map.Entry<Thread, Set<Page>> entry : this.threadToResourcesHeld.entrySet()) {
-            Thread holdingThread = entry.getKey();
-            for (Map.Entry<Thread, Set<Page>> waitEntry : threadToResourcesWaiting.entrySet()) {
-                Thread waitingThread = waitEntry.getKey();
-                Set<Page> waitingResources = waitEntry.getValue();
-
-                // Check if some thread is waiting for resources held by the current thread
-                for (Page waitingResource : waitingResources) {
-                    if (waitingResource.getOwner() == holdingThread) {
-                        waitForGraph.putIfAbsent(waitingThread, new HashSet<>());
-                        waitForGraph.get(waitingThread).add(holdingThread);
-                    }
-                }
-            }
-        }
-
-        return waitForGraph;
-    }
-
-    /**
-     * Checks if there is a cycle in the expectation graph
-     * @param graph expectation graph
-     * @return true if a cycle is found
-     */
-    private boolean hasCycle(Map<Thread, Set<Thread>> graph) {
-        Set<Thread> visited = new HashSet<>();
-        Set<Thread> recStack = new HashSet<>();
-
-        // Check each vertex of the graph
-        for (Thread thread : graph.keySet()) {
-            if (isCyclicUtil(thread, visited, recStack, graph)) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
-    /**
-     * Auxiliary function for finding a loop in a graph (standard DFS)
-     */
-    private boolean isCyclicUtil(Thread thread, Set<Thread> visited,
-                                 Set<Thread> recStack, Map<Thread, Set<Thread>> graph) {
-        // If the stream has not yet been visited
-        if (!visited.contains(thread)) {
-            visited.add(thread);
-            recStack.add(thread);
-
-            // Check all threads that the current thread is waiting for
-            Set<Thread> waitingFor = graph.getOrDefault(thread, new HashSet<>());
-            for (Thread waitThread : waitingFor) {
-                // If the thread has not yet been visited and there is a cycle in the subgraph
-                if (!visited.contains(waitThread) &&
-                        this.isCyclicUtil(waitThread, visited, recStack, graph)) {
-                    return true;
-                }
-                // If the thread is already on the recursion stack, then we have found a loop
-                else if (recStack.contains(waitThread)) {
-                    return true;
-                }
-            }
-        }
-
-        // Remove a thread from the current path
-        recStack.remove(thread);
-        return false;
+    public FreeSpaceMap getFreeSpaceMap() {
+        return this.memoryManager.getFreeSpaceMap();
     }
 
     /**
      * Get list of current resources held by current thread
      */
     public List<Page> getHeldResources() {
-        Thread currentThread = Thread.currentThread();
-        graphLock.lock();
-        try {
-            Set<Page> heldResources = this.threadToResourcesHeld.getOrDefault(currentThread, new HashSet<>());
-            return new ArrayList<>(heldResources);
-        } finally {
-            graphLock.unlock();
-        }
+        Set<Page> heldResources = this.threadToResourcesHeld.getOrDefault(Thread.currentThread(), new HashSet<>());
+        return new ArrayList<>(heldResources);
     }
 
     /**
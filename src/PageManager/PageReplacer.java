@@ -0,0 +1,162 @@
+package PageManager;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Name of class: PageReplacer
+ * <p>
+ * Description: Chooses the page to swap out with the CLOCK algorithm (second chance), made scan resistant as in 2Q.
+ * The ring is made of the frame slots of a PageTable, each with its usage bits stored by slot: a hit only sets
+ * the reference bit, and the hand clears bits until it meets a page that was not used since its last pass.
+ * <p>
+ * Pages brought in by a sequential scan go to a probation queue instead of the clock. They leave it in FIFO order
+ * and only join the clock if a regular access hit them meanwhile, so a scan recycles its own pages and
+ * takes at most a quarter of the cache from the frequently reused ones.
+ * Finding a victim is O(1) amortized whatever the cache size.
+ * <p>
+ * Version: 3.0
+ * <p>
+ * Date 10/18
+ * <p>
+ * Copyright: Semenov Egor
+ */
+
+public class PageReplacer {
+    private static final byte CACHED = 1;
+    private static final byte REFERENCED = 2;
+    private static final byte PROBATION = 4;
+    private static final int probationTries = 16; // pinned pages skipped before a scan gives up on the probation queue
+    private static final VarHandle STATE = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private byte[] state;             // usage bits of each frame slot, without CACHED for an empty slot
+    private int hand = 0;
+
+    // Probation queue: circular FIFO of slots holding scanned pages
+    private int[] probation;
+    private int probationHead = 0;
+    private int probationCount = 0;
+    private final int probationLimit;
+
+    public PageReplacer(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.state = new byte[capacity];
+        this.probation = new int[capacity];
+        this.probationLimit = Math.max(1, capacity / 4);
+    }
+
+    /**
+     * Records a hit, may be called without the cache lock.
+     * The reference bit is only added to the bits still in place, so a slot cleared or admitted again meanwhile keeps its state
+     * (a lost update only costs a second chance)
+     * @param sequentialScan hits of a scan are not counted, a page read once by a scan must not look hot
+     */
+    public void touch(int slot, boolean sequentialScan) {
+        if (sequentialScan) return;
+        byte[] states = this.state;
+        if (slot < 0 || slot >= states.length) return;
+        byte bits;
+        do {
+            bits = (byte) STATE.getVolatile(states, slot);
+            if ((bits & CACHED) == 0 || (bits & REFERENCED) != 0) return;
+        } while (!STATE.compareAndSet(states, slot, bits, (byte) (bits | REFERENCED)));
+    }
+
+    /**
+     * Puts the slot of a newly cached page on the ring, must be called under the cache lock
+     * @param sequentialScan the page is put on probation instead of the clock
+     */
+    public void admit(int slot, boolean sequentialScan) {
+        if (slot >= this.state.length) this.grow(slot + 1); // every cached page was in use, the cache went over its size
+        if (sequentialScan) {
+            this.state[slot] = CACHED | PROBATION;
+            this.enqueueProbation(slot);
+        } else {
+            this.state[slot] = CACHED | REFERENCED;
+        }
+    }
+
+    /**
+     * Finds a page that accepts to leave, must be called under the cache lock.
+     * A full probation queue gives the victim first, a scan never takes a page from the clock once the queue is full
+     * @param evict tries to detach the page of the slot from the cache, returns false if the page is in use
+     * @param sequentialScan the victim makes room for a scanned page
+     * @return slot of the evicted page, now empty, or -1 if no page can leave
+     */
+    public int evict(IntPredicate evict, boolean sequentialScan) {
+        boolean probationFull = this.probationCount >= this.probationLimit;
+        int victim = probationFull ? this.evictFromProbation(evict) : -1;
+        if (victim == -1 && !(sequentialScan && probationFull)) victim = this.evictFromClock(evict);
+        if (victim == -1 && !probationFull) victim = this.evictFromProbation(evict);
+        return victim;
+    }
+
+    /**
+     * Moves the hand until a page without reference bit accepts to leave, pages on probation are skipped
+     */
+    private int evictFromClock(IntPredicate evict) {
+        // Two full turns: the first one may only clear reference bits
+        for (int steps = 2 * this.state.length; steps > 0; steps--) {
+            int slot = this.hand;
+            this.hand = (this.hand + 1) % this.state.length;
+            byte bits = this.state[slot];
+            if ((bits & CACHED) == 0 || (bits & PROBATION) != 0) continue;
+            if ((bits & REFERENCED) != 0) {
+                this.state[slot] = CACHED;
+                continue;
+            }
+            if (evict.test(slot)) {
+                this.state[slot] = 0;
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Takes pages from the head of the probation queue: referenced ones are promoted to the clock,
+     * pinned ones go back to the tail, the first other one is evicted
+     */
+    private int evictFromProbation(IntPredicate evict) {
+        int pinned = 0;
+        while (this.probationCount > 0 && pinned < probationTries) {
+            int slot = this.dequeueProbation();
+            if ((this.state[slot] & REFERENCED) != 0) {
+                this.state[slot] = CACHED | REFERENCED; // reused outside of a scan, the page joins the clock
+                continue;
+            }
+            if (evict.test(slot)) {
+                this.state[slot] = 0;
+                return slot;
+            }
+            this.enqueueProbation(slot);
+            pinned++;
+        }
+        return -1;
+    }
+
+    private void enqueueProbation(int slot) {
+        if (this.probationCount == this.probation.length) this.grow(this.state.length);
+        this.probation[(this.probationHead + this.probationCount) % this.probation.length] = slot;
+        this.probationCount++;
+    }
+
+    private int dequeueProbation() {
+        int slot = this.probation[this.probationHead];
+        this.probationHead = (this.probationHead + 1) % this.probation.length;
+        this.probationCount--;
+        return slot;
+    }
+
+    private void grow(int minCapacity) {
+        int newCapacity = Math.max(this.state.length * 2, minCapacity);
+        this.state = Arrays.copyOf(this.state, newCapacity);
+        // Unroll the probation queue into the larger buffer
+        int[] queue = new int[newCapacity];
+        for (int i = 0; i < this.probationCount; i++) queue[i] = this.probation[(this.probationHead + i) % this.probation.length];
+        this.probation = queue;
+        this.probationHead = 0;
+    }
+}
@@ -0,0 +1,183 @@
+package PageManager;
+
+import Pages.Page;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Name of class: PageTable
+ * <p>
+ * Description: Maps page numbers to cached pages without boxing. Pages are stored in frame slots that keep their index
+ * while the page is cached (the replacer keeps its usage bits by slot), an open-addressing index with linear probing
+ * leads from the page number to the slot.
+ * <p>
+ * Lookups take no lock and allocate nothing, they may see a page that is being removed or miss one that is being added,
+ * so a found page is checked by its number and a miss has to be confirmed under the lock.
+ * Changes must be made under the lock of the owner.
+ * <p>
+ * Version: 1.0
+ * <p>
+ * Date 10/18
+ * <p>
+ * Copyright: Semenov Egor
+ */
+
+public class PageTable {
+    private static final int EMPTY = -1;   // key never used since the last rehash
+    private static final int DELETED = -2; // key of a removed page, probing goes on past it
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle PAGES = MethodHandles.arrayElementVarHandle(Page[].class);
+
+    /**
+     * Index arrays are replaced together on rehash, readers work on the snapshot they started with
+     */
+    private static final class Index {
+        final int[] keys;  // page number, EMPTY or DELETED
+        final int[] slots; // frame slot of the page, written before its key
+        final int shift;
+
+        Index(int capacity) {
+            this.keys = new int[capacity];
+            this.slots = new int[capacity];
+            this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+            Arrays.fill(this.keys, EMPTY);
+        }
+    }
+
+    private volatile Index index;
+    private volatile Page[] pages;  // page held by each frame slot
+    private int[] freeSlots;        // stack of empty frame slots
+    private int freeCount;
+    private int size = 0;
+    private int deleted = 0;
+
+    public PageTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.index = new Index(PageTable.indexCapacityFor(capacity));
+        this.pages = new Page[capacity];
+        this.freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i++) this.freeSlots[i] = capacity - 1 - i;
+        this.freeCount = capacity;
+    }
+
+    /**
+     * Lock-free lookup
+     * @return frame slot of the page or -1 if the page is not cached
+     */
+    public int slotOf(int pageNumber) {
+        Index current = this.index;
+        int mask = current.keys.length - 1;
+        for (int i = PageTable.hash(pageNumber, current.shift); ; i = (i + 1) & mask) {
+            int key = (int) KEYS.getAcquire(current.keys, i);
+            if (key == pageNumber) return current.slots[i];
+            if (key == EMPTY) return -1;
+        }
+    }
+
+    /**
+     * Lock-free lookup
+     * @return the cached page or null
+     */
+    public Page get(int pageNumber) {
+        int slot = this.slotOf(pageNumber);
+        if (slot < 0) return null;
+        Page page = this.pageAt(slot);
+        // The slot may have been given to another page since the index was read
+        return (page != null && page.getPageNumber() == pageNumber) ? page : null;
+    }
+
+    public Page pageAt(int slot) {
+        Page[] current = this.pages;
+        return (slot < current.length) ? (Page) PAGES.getAcquire(current, slot) : null;
+    }
+
+    /**
+     * Caches the page, or replaces the cached page with the same number keeping its slot
+     * @return frame slot of the page
+     */
+    public int put(Page page) {
+        int pageNumber = page.getPageNumber();
+        int slot = this.slotOf(pageNumber);
+        if (slot >= 0) {
+            PAGES.setRelease(this.pages, slot, page);
+            return slot;
+        }
+        if (this.freeCount == 0) this.growSlots(); // every cached page was in use, the owner went over its size
+        slot = this.freeSlots[--this.freeCount];
+        PAGES.setRelease(this.pages, slot, page);
+        if ((this.size + this.deleted + 1) * 4 > this.index.keys.length * 3) this.rehash();
+        this.insertKey(this.index, pageNumber, slot);
+        this.size++;
+        return slot;
+    }
+
+    /**
+     * @return the removed page or null if it was not cached
+     */
+    public Page remove(int pageNumber) {
+        Index current = this.index;
+        int mask = current.keys.length - 1;
+        for (int i = PageTable.hash(pageNumber, current.shift); ; i = (i + 1) & mask) {
+            int key = current.keys[i];
+            if (key == EMPTY) return null;
+            if (key != pageNumber) continue;
+            int slot = current.slots[i];
+            KEYS.setRelease(current.keys, i, DELETED);
+            Page page = this.pages[slot];
+            PAGES.setRelease(this.pages, slot, (Page) null);
+            this.freeSlots[this.freeCount++] = slot;
+            this.size--;
+            this.deleted++;
+            return page;
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    private void insertKey(Index target, int pageNumber, int slot) {
+        int mask = target.keys.length - 1;
+        int i = PageTable.hash(pageNumber, target.shift);
+        while (target.keys[i] != EMPTY && target.keys[i] != DELETED) i = (i + 1) & mask;
+        if (target.keys[i] == DELETED && target == this.index) this.deleted--;
+        target.slots[i] = slot;
+        KEYS.setRelease(target.keys, i, pageNumber);
+    }
+
+    /**
+     * Rebuilds the index without deleted keys, doubling it if it is really full
+     */
+    private void rehash() {
+        Index current = this.index;
+        int capacity = current.keys.length;
+        if ((this.size + 1) * 2 > capacity) capacity <<= 1;
+        Index rebuilt = new Index(capacity);
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.keys[i] >= 0) this.insertKey(rebuilt, current.keys[i], current.slots[i]);
+        }
+        this.deleted = 0;
+        this.index = rebuilt;
+    }
+
+    private void growSlots() {
+        int oldCapacity = this.pages.length;
+        int newCapacity = oldCapacity * 2;
+        this.freeSlots = Arrays.copyOf(this.freeSlots, newCapacity);
+        for (int i = newCapacity - 1; i >= oldCapacity; i--) this.freeSlots[this.freeCount++] = i;
+        this.pages = Arrays.copyOf(this.pages, newCapacity);
+    }
+
+    private static int indexCapacityFor(int capacity) {
+        return Integer.highestOneBit(Math.max(capacity * 2 - 1, 1)) << 1;
+    }
+
+    /**
+     * Fibonacci hashing, the stripes already took the low bits of the page number
+     */
+    private static int hash(int pageNumber, int shift) {
+        return (int) ((pageNumber * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+}
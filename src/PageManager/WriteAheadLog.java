@@ -0,0 +1,387 @@
+package PageManager;
+
+import Pages.Page;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Name of class: WriteAheadLog
+ * <p>
+ * Description: Sequential redo log of page images. A commit appends the images of the pages it changed as one batch,
+ * then waits until the log is on disk. Commits waiting at the same time share a single force:
+ * the first one forces everything written so far, the others wait for it (group commit).
+ * <p>
+ * LSNs are positions in the whole log and keep growing across restarts. The LSN of a batch is the position right after it,
+ * a page must not be written to the data file before the log is durable up to its LSN.
+ * The log is split in segment files named after the LSN they start at, so a checkpoint drops the old ones whole.
+ * At opening, complete batches from the recovery start are replayed into the data file by several threads partitioned by page,
+ * a torn batch at the end (crash during the append) ends the log.
+ * <p>
+ * Batch format: body length (int), CRC32 of the body (int), then for each page its number (int) and its image.
+ * <p>
+ * Version: 2.1
+ * <p>
+ * Date 10/18
+ * <p>
+ * Copyright: Semenov Egor
+ */
+
+public class WriteAheadLog {
+    private static final int batchHeaderSize = 8;
+    private static final long segmentSize = 8L * 1024 * 1024; // a new segment is started past this size
+    private final int pageSize;
+
+    private final String basePath;
+    private final TreeMap<Long, Path> segments = new TreeMap<>(); // start LSN -> file, guarded by appendLock
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private long segmentStart;
+
+    private final Lock appendLock = new ReentrantLock();
+    private volatile long appendedLsn; // end of the last complete append
+
+    // Group commit
+    private final Lock commitLock = new ReentrantLock();
+    private final Condition forced = commitLock.newCondition();
+    private boolean forcing = false;
+    private volatile long durableLsn;
+
+    /**
+     * Finds the existing segments, nothing is appended before start is called
+     */
+    public WriteAheadLog(String basePath, int pageSize) {
+        this.basePath = basePath;
+        this.pageSize = pageSize;
+        Path directory = Paths.get(basePath).toAbsolutePath().getParent();
+        String prefix = Paths.get(basePath).getFileName().toString() + ".";
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (!name.startsWith(prefix)) return;
+                try {
+                    this.segments.put(Long.parseLong(name.substring(prefix.length())), path);
+                } catch (NumberFormatException ignored) {}
+            });
+        } catch (IOException e) { throw new RuntimeException("Error listing log segments: ", e); }
+    }
+
+    /**
+     * Writes the page images of every complete batch after the recovery start to the store.
+     * The calling thread reads the log and hands each image to the worker of its page (page number modulo the worker count),
+     * so the images of a page are applied in log order while different pages are written in parallel.
+     * The first image of each page is written whatever the page holds: a write torn by the crash may have left the new LSN
+     * in the first sector over older content. A later image is skipped when the page already holds a later one (its LSN says so)
+     * @param workers number of threads applying the images
+     * @return LSN of the end of the log
+     */
+    public long replay(long recoveryStart, MemoryManager.PageStore store, int workers) {
+        RedoWorker[] redoWorkers = new RedoWorker[Math.max(1, workers)];
+        for (int i = 0; i < redoWorkers.length; i++) redoWorkers[i] = new RedoWorker(store, i);
+        long end = recoveryStart;
+        try {
+            for (Map.Entry<Long, Path> segment : this.segments.entrySet()) {
+                Long next = this.segments.higherKey(segment.getKey());
+                if (next != null && next <= recoveryStart) continue; // checkpointed whole
+                if (segment.getKey() > end) break; // a hole, the log can't go on after it
+                try (FileChannel log = FileChannel.open(segment.getValue())) {
+                    long position = Math.max(recoveryStart, segment.getKey()) - segment.getKey();
+                    long size = log.size();
+                    ByteBuffer header = ByteBuffer.allocate(batchHeaderSize);
+                    while (position + batchHeaderSize <= size) {
+                        header.clear();
+                        WriteAheadLog.readFully(log, header, position);
+                        int bodySize = header.getInt(0);
+                        if (bodySize <= 0 || bodySize % (4 + this.pageSize) != 0 || position + batchHeaderSize + bodySize > size) break;
+                        ByteBuffer body = ByteBuffer.allocate(bodySize);
+                        WriteAheadLog.readFully(log, body, position + batchHeaderSize);
+                        CRC32 crc = new CRC32();
+                        crc.update(body.array(), 0, bodySize);
+                        if ((int) crc.getValue() != header.getInt(4)) break; // torn batch
+
+                        long batchLsn = segment.getKey() + position + batchHeaderSize + bodySize;
+                        for (int offset = 0; offset < bodySize; offset += 4 + this.pageSize) {
+                            int pageNumber = body.getInt(offset);
+                            store.expandFileIfNeeded(pageNumber); // here, so the workers never grow the file
+                            redoWorkers[pageNumber % redoWorkers.length].submit(new Redo(pageNumber, body.slice(offset + 4, this.pageSize), batchLsn));
+                        }
+                        position += batchHeaderSize + bodySize;
+                        end = batchLsn;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error replaying log file: ", e);
+        } finally {
+            for (RedoWorker worker : redoWorkers) worker.finish();
+        }
+        for (RedoWorker worker : redoWorkers) worker.rethrow();
+        return end;
+    }
+
+    /**
+     * Drops every segment and starts appending at the given LSN, the data file must hold every logged page
+     */
+    public void start(long lsn) {
+        this.appendLock.lock();
+        try {
+            for (Path segment : this.segments.values()) Files.deleteIfExists(segment);
+            this.segments.clear();
+            this.openSegment(lsn);
+            this.appendedLsn = lsn;
+            this.durableLsn = lsn;
+        } catch (IOException e) {
+            throw new RuntimeException("Error starting log file: ", e);
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /**
+     * Appends one batch, the images are copied at once so the pages may change afterwards
+     * @param pageNumbers numbers of the logged pages
+     * @param images contents of the pages, in the same order
+     * @param beforePublish receives the LSN the batch starts at, called before the batch is visible in getAppendedLsn
+     * @return LSN of the batch
+     */
+    public long append(List<Integer> pageNumbers, List<ByteBuffer> images, LongConsumer beforePublish) {
+        int bodySize = pageNumbers.size() * (4 + this.pageSize);
+        ByteBuffer batch = ByteBuffer.allocate(batchHeaderSize + bodySize);
+        batch.position(batchHeaderSize);
+        for (int i = 0; i < pageNumbers.size(); i++) {
+            batch.putInt(pageNumbers.get(i));
+            batch.put(images.get(i).duplicate().clear());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(batch.array(), batchHeaderSize, bodySize);
+        batch.putInt(0, bodySize);
+        batch.putInt(4, (int) crc.getValue());
+        batch.clear();
+
+        this.appendLock.lock();
+        try {
+            long start = this.appendedLsn;
+            if (start - this.segmentStart >= segmentSize) {
+                this.channel.force(false); // later forces only reach the new segment
+                this.durableLsn = Math.max(this.durableLsn, start);
+                this.channel.close();
+                this.file.close();
+                this.openSegment(start);
+            }
+            long position = start - this.segmentStart;
+            while (batch.hasRemaining()) this.channel.write(batch, position + batch.position());
+            beforePublish.accept(start);
+            this.appendedLsn = start + batch.capacity();
+            return this.appendedLsn;
+        } catch (IOException e) {
+            throw new RuntimeException("Error appending to log file: ", e);
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    public long getAppendedLsn() {
+        return this.appendedLsn;
+    }
+
+    /**
+     * Returns once the log is on disk up to the LSN, forcing it if no other thread is already doing so
+     */
+    public void flushTo(long lsn) {
+        if (this.durableLsn >= lsn) return;
+        this.commitLock.lock();
+        try {
+            while (this.durableLsn < lsn) {
+                if (this.forcing) {
+                    this.forced.awaitUninterruptibly();
+                    continue;
+                }
+                // Leader: forces every append finished so far, for itself and for the followers
+                this.forcing = true;
+                this.commitLock.unlock();
+                long target;
+                try {
+                    FileChannel current;
+                    this.appendLock.lock();
+                    try {
+                        target = this.appendedLsn;
+                        current = this.channel;
+                    } finally {
+                        this.appendLock.unlock();
+                    }
+                    try {
+                        current.force(false);
+                    } catch (ClosedChannelException e) {
+                        // the segment was switched meanwhile, it was forced before being closed
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("Error forcing log file: ", e);
+                } finally {
+                    this.commitLock.lock();
+                    this.forcing = false;
+                    this.forced.signalAll();
+                }
+                if (target > this.durableLsn) this.durableLsn = target;
+            }
+        } finally {
+            this.commitLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the segments that end before the LSN, a checkpoint made them useless
+     */
+    public void discardBefore(long lsn) {
+        this.appendLock.lock();
+        try {
+            List<Long> obsolete = new ArrayList<>();
+            for (Long start : this.segments.keySet()) {
+                Long next = this.segments.higherKey(start);
+                if (next == null || next > lsn) break;
+                obsolete.add(start);
+            }
+            for (Long start : obsolete) Files.deleteIfExists(this.segments.remove(start));
+        } catch (IOException e) {
+            throw new RuntimeException("Error deleting log segment: ", e);
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    /**
+     * Closes the log and deletes its segments, the data file must hold every logged page
+     */
+    public void close() {
+        this.appendLock.lock();
+        try {
+            this.channel.close();
+            this.file.close();
+            for (Path segment : this.segments.values()) Files.deleteIfExists(segment);
+            this.segments.clear();
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing log file: ", e);
+        } finally {
+            this.appendLock.unlock();
+        }
+    }
+
+    private void openSegment(long startLsn) throws IOException {
+        Path path = Paths.get(this.basePath + "." + startLsn);
+        this.file = new RandomAccessFile(path.toFile(), "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        this.segmentStart = startLsn;
+        this.segments.put(startLsn, path);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Unexpected end of log file");
+        }
+    }
+
+    /**
+     * Page image to write back during recovery
+     */
+    private record Redo(int pageNumber, ByteBuffer image, long lsn) {}
+
+    /**
+     * Recovery thread applying the images of its share of the pages, in the order they were read
+     */
+    private static final class RedoWorker implements Runnable {
+        private static final Redo end = new Redo(-1, null, 0);
+        private final BlockingQueue<Redo> queue = new ArrayBlockingQueue<>(256); // bounds the log held in memory
+        private static final int trackedPages = 4096;
+        private final BitSet replayed = new BitSet(); // pages whose first image was written, their header can be trusted
+        // LSN of the pages replayed lately, the others are read again from the page header written with the image
+        private final Map<Integer, Long> pageLsns = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+                return this.size() > trackedPages;
+            }
+        };
+        private final MemoryManager.PageStore store;
+        private final Thread thread;
+        private volatile RuntimeException failure;
+
+        RedoWorker(MemoryManager.PageStore store, int index) {
+            this.store = store;
+            this.thread = new Thread(this, "redo-" + index);
+            this.thread.start();
+        }
+
+        void submit(Redo redo) {
+            if (this.failure != null) throw this.failure;
+            try {
+                this.queue.put(redo);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while replaying log file", e);
+            }
+        }
+
+        /**
+         * Waits until every submitted image is applied
+         */
+        void finish() {
+            try {
+                this.queue.put(end);
+                this.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void rethrow() {
+            if (this.failure != null) throw this.failure;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Redo redo = this.queue.take(); redo != end; redo = this.queue.take()) {
+                    if (this.failure != null) continue; // keeps draining so the reader never blocks
+                    try {
+                        this.apply(redo);
+                    } catch (RuntimeException e) {
+                        this.failure = e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                this.failure = new RuntimeException("Interrupted while replaying log file", e);
+            }
+        }
+
+        private void apply(Redo redo) {
+            if (this.replayed.get(redo.pageNumber())) {
+                Long pageLsn = this.pageLsns.get(redo.pageNumber());
+                if (pageLsn == null) pageLsn = Page.readLsn(this.store.load(redo.pageNumber()));
+                if (pageLsn >= redo.lsn()) return;
+            }
+            Page.writeLsn(redo.image(), redo.lsn());
+            this.store.save(redo.pageNumber(), redo.image());
+            this.pageLsns.put(redo.pageNumber(), redo.lsn());
+            this.replayed.set(redo.pageNumber());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package Pages;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Name of class: BitmapPage
+ * <p>
+ * Description: Records which pages of a range of the file are in use, one bit per page (set when used) in 8 byte words.
+ * <p>
+ * Version: 1.0
+ * <p>
+ * Date 10/18
+ * <p>
+ * Copyright: Semenov Egor
+ */
+
+public class BitmapPage extends Page {
+    /**
+     * Bitmap page construction:
+     *  - Page Meta info 18 bytes
+     *  - Words of the bitmap, as many as fit, the bit of page i of the range is bit i % 64 of word i / 64
+     */
+    private static final short type = 5;
+
+    public BitmapPage(ByteBuffer buffer, int pageNumber){super(buffer, pageNumber);}
+
+    /**
+     * Formats an unused frame (whatever it contains) as an empty bitmap page with the given number
+     */
+    public static BitmapPage formatFrame(ByteBuffer frame, int pageNumber){
+        BitmapPage bitmapPage = new BitmapPage(frame, pageNumber);
+        bitmapPage.reformatPage(BitmapPage.type, (short) -1);
+        for(int word = 0; word < bitmapPage.getWordCount(); word++) bitmapPage.setWord(word, 0);
+        return bitmapPage;
+    }
+
+    /**
+     * @return number of pages a bitmap page of the given size covers
+     */
+    public static int pagesCovered(int pageSize){
+        return Page.dataAreaSize(pageSize) / 8 * 64;
+    }
+
+    public int getWordCount(){return this.getFreePageSize() / 8;}
+    public long getWord(int word){return this.readLong(8 * word);}
+    public void setWord(int word, long value){this.writeLong(8 * word, value);}
+
+    /**
+     * @param index position of the page in the range of this bitmap page
+     */
+    public boolean isUsed(int index){
+        return (this.getWord(index >>> 6) & (1L << index)) != 0;
+    }
+
+    public void setUsed(int index, boolean used){
+        long word = this.getWord(index >>> 6);
+        this.setWord(index >>> 6, used ? word | (1L << index) : word & ~(1L << index));
+    }
+
+    public String toString(){
+        StringBuilder[] rows = new StringBuilder[0];
+        return super.assemblyString(15, rows);
+    }
+}
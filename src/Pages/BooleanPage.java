@@ -6,6 +6,7 @@ import Pages.Interface.BackLinkPage;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.PrimitiveIterator;
 
 /**
  * Name of class: BooleanPage
@@ -22,10 +23,11 @@ import java.util.ArrayList;
 public class BooleanPage extends Page implements BackLinkPage<Boolean> {
     private static final short booleanSize = 1;
     private static final short metaInfoSize = Address.ADDRESS_SIZE;
-    private static final short totalSize = booleanSize + booleanSize;
+    private static final short totalSize = metaInfoSize + booleanSize;
     private static final short type = 4;
 
     public BooleanPage(int pageNumber) {super(BooleanPage.type, BooleanPage.totalSize, pageNumber);}
+    public BooleanPage(FreePage freePage) {super(BooleanPage.type, BooleanPage.totalSize, freePage);}
     public BooleanPage(ByteBuffer data, int pageNumber) {super(data, BooleanPage.totalSize, pageNumber);}
 
     private void validateIndex(int index){
@@ -40,15 +42,13 @@ public class BooleanPage extends Page implements BackLinkPage<Boolean> {
     @Override
     public Boolean get(short index){
         this.validateIndex(index);
-        this.setCursor(index*(BooleanPage.totalSize)+ BooleanPage.metaInfoSize);
-        return this.readBoolean();
+        return this.readBoolean(index*BooleanPage.totalSize + BooleanPage.metaInfoSize);
     }
 
     private Object[] getBooleanByIndexWithMeta(int index){
         this.validateIndex(index);
-        this.setCursor(index*(BooleanPage.totalSize));
-        Address address = this.readAddress();
-        return new Object[]{address, this.readBoolean()};
+        int cursor = index*BooleanPage.totalSize;
+        return new Object[]{this.readAddress(cursor), this.readBoolean(cursor + BooleanPage.metaInfoSize)};
     }
 
     @Override
@@ -57,8 +57,8 @@ public class BooleanPage extends Page implements BackLinkPage<Boolean> {
         String operator = condition.operator();
         Boolean value = (Boolean) condition.value();
 
-        for(int i = 0; i < this.getOnPageObjectNumber(); i++){
-            Object[] boolWithMetaInfo = this.getBooleanByIndexWithMeta(i);
+        for(PrimitiveIterator.OfInt slots = this.usedSlots(); slots.hasNext(); ){
+            Object[] boolWithMetaInfo = this.getBooleanByIndexWithMeta(slots.nextInt());
             Boolean data = (Boolean) boolWithMetaInfo[1];
             Address address = (Address) boolWithMetaInfo[0];
 
@@ -80,17 +80,17 @@ public class BooleanPage extends Page implements BackLinkPage<Boolean> {
 
     @Override
     public short add(Boolean value, Address objectAddress){
-        short freeAddress = super.getNextFreeOffset(BooleanPage.totalSize);
-        if(freeAddress < 0) return -1;
-        this.writeAddress(objectAddress);
-        this.writeBoolean(value);
-        return this.getIndexByOffset(freeAddress);
+        int slot = this.allocateSlot();
+        if(slot < 0) return -1;
+        this.writeAddress(slot*BooleanPage.totalSize, objectAddress);
+        this.writeBoolean(slot*BooleanPage.totalSize + BooleanPage.metaInfoSize, value);
+        return (short) slot;
     }
 
     @Override
     public void delete(short index){
         this.validateIndex(index);
-        this.releaseOffset((short) (index*BooleanPage.totalSize));
+        this.releaseSlot(index);
     }
 
     @Override
@@ -102,21 +102,17 @@ public class BooleanPage extends Page implements BackLinkPage<Boolean> {
     @Override
     public void replaceSamePlace(short index, Boolean value){
         this.validateIndex(index);
-        Address address = (Address) this.getBooleanByIndexWithMeta(index)[0];
-        this.setCursor(index*BooleanPage.totalSize);
-        this.writeAddress(address);
-        this.writeBoolean(value);
+        this.writeBoolean(index*BooleanPage.totalSize + BooleanPage.metaInfoSize, value); // the address of the object stays
     }
 
     @Override
     public String toString(){
         StringBuilder[] rows = new StringBuilder[this.getOnPageObjectNumber() + 1];
         int maxLength = 0;
-        this.setCursor(0);
-        for(short i = 0; i < rows.length; i++){
+        for(short i = 0; i < rows.length - 1; i++){
             StringBuilder builder = new StringBuilder();
             builder.append("│ ");
-            builder.append(this.readAddress()).append(" ");
+            builder.append(this.readAddress(i*BooleanPage.totalSize)).append(" ");
             builder.append(this.get(i));
             if(builder.length() > maxLength) maxLength = builder.length();
             rows[i] = builder;
@@ -17,7 +17,7 @@ import java.nio.ByteBuffer;
 public class FreePage extends Page {
     /**
      * Free page construction:
-     *  - Page Meta info 10 bytes ?
+     *  - Page Meta info 18 bytes
      */
     private static final short type = 99;
 
@@ -26,13 +26,26 @@ public class FreePage extends Page {
         setNextFreePage(-1);
     }
     public FreePage(ByteBuffer buffer, int pageNumber){super(buffer, pageNumber);}
+    public FreePage(Page deletedPage){
+        super(FreePage.type, (short) -1, deletedPage);
+        setNextFreePage(-1);
+    }
+
+    /**
+     * Formats an unused frame (whatever it contains) as the free page with the given number
+     */
+    public static FreePage formatFrame(ByteBuffer frame, int pageNumber){
+        FreePage freePage = new FreePage(frame, pageNumber);
+        freePage.reformatPage(FreePage.type, (short) -1);
+        freePage.setNextFreePage(-1);
+        return freePage;
+    }
 
     public void setNextFreePage(int pageNumber){
         this.setNextPage(pageNumber);
     }
     public int getNextFreePage(){
-        this.getNextPage();
-        return this.readInteger();
+        return this.getNextPage();
     }
 
     public String toString(){
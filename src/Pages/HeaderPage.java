@@ -6,7 +6,7 @@ import java.nio.charset.StandardCharsets;
 /**
  * Name of class: HeaderPage
  * <p>
- * Description: Contains the database version number as well as the index of the first free page available.
+ * Description: Contains the database version number and page size as well as the index of the first page of the free-page bitmap.
  * <p>
  * Version: 4.0
  * <p>
@@ -18,68 +18,76 @@ import java.nio.charset.StandardCharsets;
 public class HeaderPage extends Page{
     /**
      * Header page construction:
-     *  - MetaInfo of Page 10 bytes ?
+     *  - MetaInfo of Page 18 bytes
      *  - MagicNumber HeaderPage.magicSize
      *  - DataBaseVersion int 4 bytes
-     *  - FirstFreeIndex int 4 bytes
+     *  - FirstBitmapPage int 4 bytes, bitmap page of the first range of pages (see PageBitmap)
      *  - Total page count 4 bytes
+     *  - Recovery start long 8 bytes, LSN from which the log is replayed after a crash
+     *  - Page size int 4 bytes, chosen when the database is created
      */
     private static final short type = 100;
     private static final String magicValue = "PROJECTDATA";
     private static final int magicSize = magicValue.getBytes().length;
-    private static int version;
 
     public HeaderPage(ByteBuffer buffer, int pageNumber) {
         super(buffer, pageNumber);
     }
 
-    public HeaderPage(int pageNumber, int dataBaseVersion){
-        super(HeaderPage.type, (short) -1, pageNumber);
-        this.setCursor((short) 0);
-        this.writeBytes(HeaderPage.magicValue.getBytes()); //Text
-        this.writeInteger(HeaderPage.version); //DataBaseVersion
-        this.writeInteger(-1); //FirstFree
-        this.writeInteger(1); //TotalPageCount
-        HeaderPage.version = dataBaseVersion;
+    public HeaderPage(int pageNumber, int dataBaseVersion, int pageSize){
+        super(HeaderPage.type, (short) -1, pageNumber, pageSize);
+        this.writeBytes(0, HeaderPage.magicValue.getBytes()); //Text
+        this.writeInteger(HeaderPage.magicSize, dataBaseVersion); //DataBaseVersion
+        this.writeInteger(HeaderPage.magicSize + 4, 2); //FirstBitmapPage
+        this.writeInteger(HeaderPage.magicSize + 8, 2); //TotalPageCount
+        this.writeLong(HeaderPage.magicSize + 12, 0); //RecoveryStart
+        this.writeInteger(HeaderPage.magicSize + 20, pageSize); //PageSize
     }
 
-    public void setFirstFree(int pageNumber){
-        this.setCursor(HeaderPage.magicSize + 4);
-        this.writeInteger(pageNumber);
-    }
-
-    public int getFirstFreePage(){
-        this.setCursor(HeaderPage.magicSize + 4);
-        return this.readInteger();
+    public int getFirstBitmapPage(){
+        return this.readInteger(HeaderPage.magicSize + 4);
     }
 
     public void setTotalPage(int totalPageNumber){
-        this.setCursor(HeaderPage.magicSize + 8);
-        this.writeInteger(totalPageNumber);
+        this.writeInteger(HeaderPage.magicSize + 8, totalPageNumber);
     }
 
     public int getTotalPage(){
-        this.setCursor(HeaderPage.magicSize + 8);
-        return this.readInteger();
+        return this.readInteger(HeaderPage.magicSize + 8);
+    }
+
+    public void setRecoveryStartLsn(long lsn){
+        this.writeLong(HeaderPage.magicSize + 12, lsn);
+    }
+
+    public long getRecoveryStartLsn(){
+        return this.readLong(HeaderPage.magicSize + 12);
+    }
+
+    /**
+     * Stored value, a header read from the first bytes of the file only has a buffer of the default size
+     */
+    public int getDataBasePageSize(){
+        return this.readInteger(HeaderPage.magicSize + 20);
     }
 
     public int getDataBaseVersion(){
-        this.setCursor(HeaderPage.magicSize);
-        return this.readInteger();
+        return this.readInteger(HeaderPage.magicSize);
     }
 
     public String getMagicValue(){
-        this.setCursor(0);
-        return new String(this.readBytes((short) HeaderPage.magicSize), StandardCharsets.UTF_8).trim();
+        return new String(this.readBytes(0, HeaderPage.magicSize), StandardCharsets.UTF_8).trim();
     }
 
     public String toString(){
-        StringBuilder[] rows =  new StringBuilder[4];
+        StringBuilder[] rows =  new StringBuilder[6];
         int maxLength = 0;
         rows[0] = new StringBuilder().append("│ MagicNumber ").append(this.getMagicValue());
         rows[1] = new StringBuilder("│ DataBaseVersion ").append(this.getDataBaseVersion());
-        rows[2] = new StringBuilder().append("│ FirstFreePage ").append(this.getFirstFreePage());
+        rows[2] = new StringBuilder().append("│ FirstBitmapPage ").append(this.getFirstBitmapPage());
         rows[3] = new StringBuilder().append("│ TotalPage ").append(this.getTotalPage());
+        rows[4] = new StringBuilder().append("│ RecoveryStart ").append(this.getRecoveryStartLsn());
+        rows[5] = new StringBuilder().append("│ PageSize ").append(this.getDataBasePageSize());
         for(StringBuilder row: rows){
             if(row.length() > maxLength) maxLength = row.length();
         }
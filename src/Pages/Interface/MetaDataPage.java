@@ -16,6 +16,6 @@ import TableManager.TableDescription;
 
 public interface MetaDataPage{
     TableDescription getClassByName(String className);
-    TableDescription getClassByOffset(short offset);
-    short add(TableDescription dataClass);
+    TableDescription getClassByOffset(int offset);
+    int add(TableDescription dataClass);
 }
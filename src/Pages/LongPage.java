@@ -6,6 +6,7 @@ import NewQuery.Condition;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.PrimitiveIterator;
 
 public class LongPage extends Page implements BackLinkPage<Long> {
     private static final short integerSize = 8;
@@ -14,6 +15,7 @@ public class LongPage extends Page implements BackLinkPage<Long> {
     private static final short type = 3;
 
     public LongPage(int pageNumber) {super(LongPage.type, LongPage.totalSize, pageNumber);}
+    public LongPage(FreePage freePage) {super(LongPage.type, LongPage.totalSize, freePage);}
     public LongPage(ByteBuffer data, int  pageNumber) {super(data, LongPage.totalSize, pageNumber);}
 
     private void validateIndex(int index){
@@ -28,15 +30,13 @@ public class LongPage extends Page implements BackLinkPage<Long> {
     @Override
     public Long get(short index) {
         this.validateIndex(index);
-        this.setCursor(index*(LongPage.totalSize)+ LongPage.metaInfoSize);
-        return this.readLong();
+        return this.readLong(index*LongPage.totalSize + LongPage.metaInfoSize);
     }
 
     private Object[] getLongByIndexWithMeta(int index){
         this.validateIndex(index);
-        this.setCursor(index*(LongPage.totalSize));
-        Address address = this.readAddress();
-        return new Object[]{address, this.readLong()};
+        int cursor = index*LongPage.totalSize;
+        return new Object[]{this.readAddress(cursor), this.readLong(cursor + LongPage.metaInfoSize)};
     }
 
     @Override
@@ -45,8 +45,8 @@ public class LongPage extends Page implements BackLinkPage<Long> {
         String operator = condition.operator();
         Long value = (Long) condition.value();
 
-        for (int i = 0; i < this.getOnPageObjectNumber(); i++){
-            Object[] longWithMetaInfo = this.getLongByIndexWithMeta(i);
+        for (PrimitiveIterator.OfInt slots = this.usedSlots(); slots.hasNext(); ){
+            Object[] longWithMetaInfo = this.getLongByIndexWithMeta(slots.nextInt());
             Long data = (Long) longWithMetaInfo[1];
             Address address = (Address)  longWithMetaInfo[0];
 
@@ -71,17 +71,17 @@ public class LongPage extends Page implements BackLinkPage<Long> {
 
     @Override
     public short add(Long value, Address objectAddress) {
-        short freeAddress = super.getNextFreeOffset(LongPage.totalSize);
-        if (freeAddress < 0) return -1;
-        this.writeAddress(objectAddress);
-        this.writeLong(value);
-        return this.getIndexByOffset(freeAddress);
+        int slot = this.allocateSlot();
+        if (slot < 0) return -1;
+        this.writeAddress(slot*LongPage.totalSize, objectAddress);
+        this.writeLong(slot*LongPage.totalSize + LongPage.metaInfoSize, value);
+        return (short) slot;
     }
 
     @Override
     public void delete(short index) {
         this.validateIndex(index);
-        this.releaseOffset((short) (index*LongPage.totalSize));
+        this.releaseSlot(index);
     }
 
     @Override
@@ -93,21 +93,17 @@ public class LongPage extends Page implements BackLinkPage<Long> {
     @Override
     public void replaceSamePlace(short index, Long value) {
         this.validateIndex(index);
-        Address objectAddress = (Address) this.getLongByIndexWithMeta(index)[0];
-        this.setCursor(index*LongPage.totalSize);
-        this.writeAddress(objectAddress);
-        this.writeLong(value);
+        this.writeLong(index*LongPage.totalSize + LongPage.metaInfoSize, value); // the address of the object stays
     }
 
     @Override
     public String toString() {
         StringBuilder[] rows = new StringBuilder[this.getOnPageObjectNumber() + 1];
         int maxLength = 0;
-        this.setCursor(0);
         for(short i = 0; i < rows.length - 1; i ++) {
             StringBuilder builder = new StringBuilder();
             builder.append("│ ");
-            builder.append(this.readAddress()).append(" ");
+            builder.append(this.readAddress(i*LongPage.totalSize)).append(" ");
             builder.append(this.get(i));
             if(builder.length() > maxLength) maxLength = builder.length();
             rows[i] = builder;
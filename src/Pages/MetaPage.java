@@ -48,13 +48,15 @@ public class MetaPage extends Page implements MetaDataPage {
 
     public MetaPage(ByteBuffer buffer, int pageNumber) {super(buffer, pageNumber);}
     public MetaPage(int pageNumber){super(MetaPage.type, (short) -1, pageNumber);}
+    public MetaPage(int pageNumber, int pageSize){super(MetaPage.type, (short) -1, pageNumber, pageSize);}
+    public MetaPage(FreePage freePage){super(MetaPage.type, (short) -1, freePage);}
     public void format(MetaPage previousPage){
         super.reformatPage(MetaPage.type, (short) -1);
         previousPage.setNextPage(this.getPageNumber());
     }
 
 
-    public short add(TableDescription dataClass){
+    public int add(TableDescription dataClass){
         if(this.searchTableByName(dataClass.getName()) != -1) throw new IllegalArgumentException("Table " + dataClass.getName() + " already exists");
         byte[] name = dataClass.getName().getBytes(StandardCharsets.UTF_8);
         if(name.length > MetaPage.stringSize) throw new IllegalArgumentException("Table name is too long");
@@ -70,47 +72,48 @@ public class MetaPage extends Page implements MetaDataPage {
             System.arraycopy(nameBytes, 0, attriBytes[i], 0, nameBytes.length);
         }
         short classLength = (short)(MetaPage.metaInfoSize + dataClass.getAttributesNames().length * (MetaPage.stringSize + MetaPage.linkSize));
-        if(classLength > Page.freePageSize) throw new IllegalArgumentException("Table is too long");
-        short offset = this.getNextFreeOffset(classLength);
+        if(classLength > this.getFreePageSize()) throw new IllegalArgumentException("Table is too long");
+        int offset = this.getNextFreeOffset(classLength);
         if(offset < 0) return -1;
-        this.writeShort(classLength); // length
-        this.writeShort((short)(dataClass.getAttributesNames().length)); // parameterNumber
-        this.writeInteger(dataClass.getObjectPage()); // objectPage
-        this.writeBytes(bytes);
+        this.writeShort(offset, classLength); // length
+        this.writeShort(offset + 2, (short)(dataClass.getAttributesNames().length)); // parameterNumber
+        this.writeInteger(offset + 4, dataClass.getObjectPage()); // objectPage
+        this.writeBytes(offset + 8, bytes);
+        int cursor = offset + MetaPage.metaInfoSize;
         for(int i = 0; i < dataClass.getAttributesNames().length; i++){
-            this.writeBytes(attriBytes[i]);
-            this.writeInteger(dataClass.getAttributesPages()[i]);
+            this.writeBytes(cursor, attriBytes[i]);
+            this.writeInteger(cursor + MetaPage.stringSize, dataClass.getAttributesPages()[i]);
+            cursor += MetaPage.stringSize + MetaPage.linkSize;
         }
         return offset;
     }
 
     public TableDescription getClassByName(String className){
-        short offset = this.searchTableByName(className);
+        int offset = this.searchTableByName(className);
         if(offset == -1) return null;
         return this.getClassByOffset(offset);
     }
 
-    public TableDescription getClassByOffset(short offset){
-        this.setCursor(offset);
-        this.readShort();
-        short paramNumber = this.readShort();
-        int page = this.readInteger();
-        byte[] bytes = this.readBytes(MetaPage.stringSize);
+    public TableDescription getClassByOffset(int offset){
+        short paramNumber = this.readShort(offset + 2);
+        int page = this.readInteger(offset + 4);
+        byte[] bytes = this.readBytes(offset + 8, MetaPage.stringSize);
         String className = new String(bytes, StandardCharsets.UTF_8).trim();
         String[] attributeNames = new String[paramNumber];
         int[] attributesPages = new int[paramNumber];
+        int cursor = offset + MetaPage.metaInfoSize;
         for(int i = 0; i < paramNumber; i++){
-            attributeNames[i] = new String(this.readBytes(MetaPage.stringSize), StandardCharsets.UTF_8).trim();
-            attributesPages[i] = this.readInteger();
+            attributeNames[i] = new String(this.readBytes(cursor, MetaPage.stringSize), StandardCharsets.UTF_8).trim();
+            attributesPages[i] = this.readInteger(cursor + MetaPage.stringSize);
+            cursor += MetaPage.stringSize + MetaPage.linkSize;
         }
         return new TableDescription(page, className, attributeNames, attributesPages);
     }
 
     public boolean deleteClassByName(String className){
-        short offset = this.searchTableByName(className);
+        int offset = this.searchTableByName(className);
         if(offset == -1) return false; // do while delete == false or getNextPage = -1
-        this.setCursor(offset + 2); //there rearrange to read the number of attributes of the class
-        this.releaseOffset(offset, (short)(MetaPage.metaInfoSize + this.readShort() * (MetaPage.stringSize + MetaPage.linkSize)));
+        this.releaseOffset(offset, MetaPage.metaInfoSize + this.readShort(offset + 2) * (MetaPage.stringSize + MetaPage.linkSize)); // number of attributes of the class
         return true;
     }
 
@@ -124,30 +127,27 @@ public class MetaPage extends Page implements MetaDataPage {
 
     private Map<Integer, Integer> getPageMap(){
         Map<Integer,Integer> pageMap = new HashMap<>();
-        short freeAddress = this.getFirstFree();
+        int freeAddress = this.getFirstFree();
         while (freeAddress != -1){
-            this.setCursor(freeAddress);
-            short nextFreeAddress = this.readShort();
-            short sizeOfFreeSpace = this.readShort();
-            pageMap.put((int) freeAddress, freeAddress+sizeOfFreeSpace);
+            int nextFreeAddress = this.readOffset(freeAddress);
+            int sizeOfFreeSpace = this.readSize(freeAddress + 2);
+            pageMap.put(freeAddress, freeAddress+sizeOfFreeSpace);
             freeAddress = nextFreeAddress;
         }
         return pageMap;
     }
-    public short searchTableByName(String tableName){
+    public int searchTableByName(String tableName){
         byte[] tableNameBytes = tableName.getBytes(StandardCharsets.UTF_8);
         int cursor = 0;
         Map<Integer, Integer> pageMap = this.getPageMap();
 
-        while (cursor != Page.freePageSize){
+        while (cursor != this.getFreePageSize()){
             Integer nextStep = pageMap.get(cursor);
             while(nextStep == null){
-                this.setCursor(cursor);
-                short currentTableDescriptionLength = this.readShort();
-                this.setCursor(cursor + 8);
-                byte[] readBytes = this.readBytes((short) tableNameBytes.length);
+                short currentTableDescriptionLength = this.readShort(cursor);
+                byte[] readBytes = this.readBytes(cursor + 8, tableNameBytes.length);
                 if (readBytes.length == tableNameBytes.length && Arrays.equals(tableNameBytes, readBytes)) {
-                    return  (short) cursor;
+                    return cursor;
                 }
                 cursor += currentTableDescriptionLength;
                 nextStep = pageMap.get(cursor);
@@ -164,26 +164,24 @@ public class MetaPage extends Page implements MetaDataPage {
         Map<Integer,Integer> pageMap = new HashMap<>();
 
         ArrayList<StringBuilder> rows = new ArrayList<>();
-        short freeAddress = this.getFirstFree();
+        int freeAddress = this.getFirstFree();
         while (freeAddress != -1){
-            this.setCursor(freeAddress);
-            short nextFreeAddress = this.readShort();
-            short sizeOfFreeSpace = this.readShort();
+            int nextFreeAddress = this.readOffset(freeAddress);
+            int sizeOfFreeSpace = this.readSize(freeAddress + 2);
             StringBuilder row = new StringBuilder("│ Free index: ").append(freeAddress).append(", Next ");
             row.append(nextFreeAddress);
             row.append(", Size ").append(sizeOfFreeSpace);
             rows.add(row);
-            pageMap.put((int) freeAddress, freeAddress+sizeOfFreeSpace);
+            pageMap.put(freeAddress, freeAddress+sizeOfFreeSpace);
             freeAddress = nextFreeAddress;
         }
 
         int cursor = 0;
-        while (cursor != Page.freePageSize){
+        while (cursor != this.getFreePageSize()){
             Integer nextStep = pageMap.get(cursor);
             while(nextStep == null){
-                this.setCursor(cursor);
-                short currentTableDescriptionLength = this.readShort();
-                rows.add(this.resolveMetaInfo((short) cursor));
+                short currentTableDescriptionLength = this.readShort(cursor);
+                rows.add(this.resolveMetaInfo(cursor));
                 cursor += currentTableDescriptionLength;
                 nextStep = pageMap.get(cursor);
             }
@@ -197,17 +195,18 @@ public class MetaPage extends Page implements MetaDataPage {
         return super.assemblyString(maxLength, rows.toArray(new StringBuilder[0]));
     }
 
-    private StringBuilder resolveMetaInfo(short offset){
+    private StringBuilder resolveMetaInfo(int offset){
         StringBuilder result = new StringBuilder("│ ");
-        this.setCursor(offset);
-        short lengthHere = this.readShort();
+        short lengthHere = this.readShort(offset);
         result.append(lengthHere).append(" "); //lengthHere
-        result.append(this.readShort()).append(" "); //attributesNumber
-        result.append(this.readInteger()).append(" "); //pageNumber
-        result.append(new String(this.readBytes(MetaPage.stringSize), StandardCharsets.UTF_8).trim()).append(" "); //class name
+        result.append(this.readShort(offset + 2)).append(" "); //attributesNumber
+        result.append(this.readInteger(offset + 4)).append(" "); //pageNumber
+        result.append(new String(this.readBytes(offset + 8, MetaPage.stringSize), StandardCharsets.UTF_8).trim()).append(" "); //class name
+        int cursor = offset + MetaPage.metaInfoSize;
         while (lengthHere - MetaPage.metaInfoSize > 0){ //for reading attributes names and addresses
-            result.append(new String(this.readBytes(MetaPage.stringSize), StandardCharsets.UTF_8).trim());
-            result.append(" : ").append(this.readInteger()).append(" ");
+            result.append(new String(this.readBytes(cursor, MetaPage.stringSize), StandardCharsets.UTF_8).trim());
+            result.append(" : ").append(this.readInteger(cursor + MetaPage.stringSize)).append(" ");
+            cursor += MetaPage.stringSize + MetaPage.linkSize;
             lengthHere -= (MetaPage.stringSize + MetaPage.linkSize);
         }
         return result;
@@ -29,6 +29,10 @@ public class ObjectPage extends Page implements DataPage<Address[]> {
         System.out.println("On creation new but here it's objectNumber: " + objectNumber);
         this.objectLength = objectNumber;
     }
+    public ObjectPage(short objectNumber, FreePage freePage) {
+        super(ObjectPage.type, (short)(objectNumber*ObjectPage.linkSize), freePage);
+        this.objectLength = objectNumber;
+    }
 //  Object length is the number of attributes
     public ObjectPage(ByteBuffer buffer, short pageLength, int  pageNumber) {
         super(buffer, (short)(pageLength), pageNumber);
@@ -45,9 +49,9 @@ public class ObjectPage extends Page implements DataPage<Address[]> {
     public Address[] get(short index) {
         if(index > this.getOnPageObjectNumber()) throw new IndexOutOfBoundsException("index out of bounds");
         Address[] result = new Address[this.objectLength];
-        this.setCursor(index*this.objectLength*ObjectPage.linkSize);
+        int cursor = index*this.objectLength*ObjectPage.linkSize;
         for(int i = 0; i < this.objectLength; i++)
-            result[i] = this.readAddress();
+            result[i] = this.readAddress(cursor + i*ObjectPage.linkSize);
         return result;
     }
 
@@ -61,44 +65,43 @@ public class ObjectPage extends Page implements DataPage<Address[]> {
 
     public int add(Address[] objectLinks) {
         if(objectLinks.length > this.objectLength) throw new IllegalArgumentException("Array is too long");
-        short freeAddress = this.getNextFreeOffset(this.objectLength*ObjectPage.linkSize);
-        if (freeAddress == -1) return -1;
-        for (Address objectLink : objectLinks) this.writeAddress(objectLink);
-        return this.getIndexByOffset(freeAddress);
+        int slot = this.allocateSlot();
+        if (slot == -1) return -1;
+        this.writeAddresses(slot*this.objectLength*ObjectPage.linkSize, objectLinks);
+        return slot;
     }
 
     public int allocate(){
-        short freeAddress = this.getNextFreeOffset(this.objectLength*ObjectPage.linkSize);
-        if (freeAddress == -1) return -1;
-        return this.getIndexByOffset(freeAddress);
+        return this.allocateSlot();
     }
 
     public void insertToIndex(Address[] objectLinks, int index) {
-        short offset = (short) (this.objectLength*ObjectPage.linkSize*index);
+        int offset = this.objectLength*ObjectPage.linkSize*index;
         if(objectLinks.length > this.objectLength){
-            this.releaseOffset(offset);
+            this.releaseSlot(index);
             throw new IllegalArgumentException("Array is too long");
         }
-        this.setCursor(offset);
-        for(Address objectLink : objectLinks) this.writeAddress(objectLink);
+        this.writeAddresses(offset, objectLinks);
+    }
+
+    private void writeAddresses(int cursor, Address[] objectLinks){
+        for(int i = 0; i < objectLinks.length; i++) this.writeAddress(cursor + i*ObjectPage.linkSize, objectLinks[i]);
     }
 
     public void replaceAddress(int index, int addressIndex, Address newAddress){
-        this.setCursor(index + addressIndex*ObjectPage.linkSize);
-        this.writeAddress(newAddress);
+        this.writeAddress((index*this.objectLength + addressIndex)*ObjectPage.linkSize, newAddress);
     }
 
     @Override
     public void delete(short index) {
         if(index > this.getOnPageObjectNumber()) throw new IndexOutOfBoundsException("index out of bounds");
-        this.releaseOffset((short) (index*(this.objectLength*ObjectPage.linkSize)));
+        this.releaseSlot(index);
     }
 
     @Override
     public String toString() {
         StringBuilder[] rows = new StringBuilder[this.getOnPageObjectNumber() + 1];
         int maxLength = 0;
-        this.setCursor(0);
         for(short i = 0; i < rows.length - 1; i++){
             StringBuilder builder = new StringBuilder();
             builder.append("│ ");
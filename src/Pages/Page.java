@@ -1,5 +1,9 @@
 package Pages;
 import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -22,31 +26,66 @@ public abstract class Page {
      *  nextPage - 4 bytes,
      *  firstFree - 2 bytes,
      *  dataLength - 2 bytes, (-1 - not defined)
+     *  pageLsn - 8 bytes, LSN of the last log batch holding the page (recovery skips older batches)
      * <p>
-     * Free place: <p>
+     * Pages of fixed-width elements (dataLength set) start their data with an occupancy bitmap,
+     * one bit per slot in 8 byte words, the slots follow it and the cursors count from the first one.
+     * <p>
+     * Every read and write names its cursor, the position of the buffer is never used:
+     * threads reading the same cached page don't disturb each other.
+     * <p>
+     * Free place of the other pages (unsigned, so pages up to 64 KB are addressed, -1 ends the list): <p>
      *  nextFreeAddress - 2 bytes,
      *  currentFreeSize - 2 bytes;
      */
 
     //Resource
     private final int pageNumber;
-    private volatile Thread owner = null;
+    private volatile Thread owner = null;                               // thread holding the page exclusively
+    private final Set<Thread> sharers = ConcurrentHashMap.newKeySet();  // threads holding it in shared mode, to read only
     private final Lock lock = new ReentrantLock();
     private boolean isDirty = false;
+    private volatile boolean evicted = false; // this object no longer is the cached copy of the page, its frame may be reused
+    private volatile long lsn = 0; // end of the last log batch holding this page, the log must be durable up to it before the page is written
 
     public void lock(){this.lock.lock();}
     public void unlock(){this.lock.unlock();}
     public Thread getOwner(){return this.owner;}
     public void setOwner(Thread owner){this.owner = owner;}
+    public Set<Thread> getSharers(){return this.sharers;}
+    public boolean addSharer(Thread thread){return this.sharers.add(thread);}
+    public void removeSharer(Thread thread){this.sharers.remove(thread);}
+    public boolean isSharedByOthers(Thread thread){return this.sharers.size() > (this.sharers.contains(thread) ? 1 : 0);}
+    public boolean isHeld(){return this.owner != null || !this.sharers.isEmpty();}
     private void setDirty(){this.isDirty = true;}
     public boolean isDirty(){return this.isDirty;}
+    public void clearDirty(){this.isDirty = false;} // the change was handed to the memory manager
+    public void markEvicted(){this.evicted = true;}
+    public boolean isEvicted(){return this.evicted;}
+    public long getLsn(){return this.lsn;}
+    public void setLsn(long lsn){this.lsn = lsn; this.data.putLong(Page.lsnOffset, lsn);}
+    public static long readLsn(ByteBuffer data){return data.getLong(Page.lsnOffset);}
+    public static void writeLsn(ByteBuffer data, long lsn){data.putLong(Page.lsnOffset, lsn);}
+    private static int toOffset(short stored){return (stored == -1) ? -1 : Short.toUnsignedInt(stored);}
 
 
-    private static final short metaInfoSize = 10;
-    private static final short pageSize = 4096;
-    protected static final short freePageSize =  Page.pageSize - metaInfoSize; //4088
-    public short dataSize;
+    private static final short lsnOffset = 10;
+    private static final short metaInfoSize = 18;
+    public static final int defaultPageSize = 4096;
+    public static final int maxPageSize = 65536; // offsets on the page are stored in 2 bytes, read unsigned
+    private static final byte[] emptyPage = new byte[Page.maxPageSize];
+    public int dataSize;
     private final ByteBuffer data;
+    private int dataStart = Page.metaInfoSize; // position of cursor 0, past the bitmap on fixed-width pages
+    private int slotCount = 0;                 // fixed-width pages only
+    private int bitmapWords = 0;
+
+    /**
+     * Page size is chosen when the database is created, a page takes it from its buffer
+     */
+    public static boolean isValidPageSize(int pageSize){
+        return pageSize >= Page.defaultPageSize && pageSize <= Page.maxPageSize && Integer.bitCount(pageSize) == 1;
+    }
 
     /**
      *Getters
@@ -54,14 +93,17 @@ public abstract class Page {
     public short getType(){return this.data.getShort(0);}
     public int getPageNumber(){return this.pageNumber;}
     public int getNextPage(){return this.data.getInt(2);}
-    protected short getFirstFree(){return this.data.getShort(6);}
+    protected int getFirstFree(){return Page.toOffset(this.data.getShort(6));}
+    public int getPageSize(){return this.data.capacity();}
+    protected int getFreePageSize(){return Page.dataAreaSize(this.data.capacity());}
+    protected static int dataAreaSize(int pageSize){return pageSize - Page.metaInfoSize;}
 
-    protected short getIndexByOffset(int offset){return (short)(offset/this.dataSize);}
-    protected short getOnPageObjectNumber(){return (short) ((Page.freePageSize + 1)/this.dataSize);}
+    protected short getOnPageObjectNumber(){return (short) this.slotCount;}
 
-    private void setFirstFree(short firstFreeOffset){this.data.putShort(6, firstFreeOffset);}
-    public void setNextPage(int page){this.data.putInt(2, page);}
-    private void setDataSize(short dataSize){this.data.putShort(8, dataSize);}
+    private void setType(short type){this.data.putShort(0, type); this.setDirty();}
+    private void setFirstFree(int firstFreeOffset){this.data.putShort(6, (short) firstFreeOffset); this.setDirty();}
+    public void setNextPage(int page){this.data.putInt(2, page); this.setDirty();}
+    private void setDataSize(int dataSize){this.data.putShort(8, (short) dataSize); this.setDirty();}
     public ByteBuffer getData(){return this.data;}
 
     /**
@@ -69,40 +111,44 @@ public abstract class Page {
      *it is the method because of which I rewrote this class,
      * it allows not to take into account the meta information of the page when writing links,
      * which saves the code from magic numbers
+     * @param cursor offset from the start of the data
+     * @param length bytes accessed from there
+     * @return index of the cursor in the buffer
      */
-    protected void setCursor(int cursor){
-        if(cursor + Page.metaInfoSize <= Page.pageSize){
-            this.data.position(cursor + Page.metaInfoSize);
-        } else throw new IndexOutOfBoundsException("Tried to put cursor on " + cursor + " + " + Page.metaInfoSize);
+    private int toIndex(int cursor, int length){
+        if(cursor >= 0 && cursor + this.dataStart + length <= this.data.capacity()) return cursor + this.dataStart;
+        throw new IndexOutOfBoundsException("Tried to access " + length + " bytes at " + cursor + " + " + this.dataStart);
     }
-    public void setData(ByteBuffer data){this.data.put(data);}
+    public void setData(ByteBuffer data){this.data.put(0, data, data.position(), data.remaining()); this.setDirty();}
     /**
-     *Reading data from ByteBuffer with automatic cursor movement
+     *Reading data from ByteBuffer at the given cursor
      */
-    protected byte[] readBytes(short length){
+    protected byte[] readBytes(int cursor, int length){
         byte[] result = new byte[length];
-        this.data.get(result);
+        this.data.get(this.toIndex(cursor, length), result);
         return result;
     }
-    protected int readInteger(){return this.data.getInt();}
-    protected long readLong(){return this.data.getLong();}
-    protected short readShort(){return this.data.getShort();}
-    protected boolean readBoolean(){return this.data.get() == 1;}
-    protected Address readAddress(){return new Address(this.readInteger(), this.readShort());}
+    protected int readInteger(int cursor){return this.data.getInt(this.toIndex(cursor, 4));}
+    protected long readLong(int cursor){return this.data.getLong(this.toIndex(cursor, 8));}
+    protected short readShort(int cursor){return this.data.getShort(this.toIndex(cursor, 2));}
+    protected int readOffset(int cursor){return Page.toOffset(this.readShort(cursor));} // link of the free list, -1 at its end
+    protected int readSize(int cursor){return Short.toUnsignedInt(this.readShort(cursor));}
+    protected boolean readBoolean(int cursor){return this.data.get(this.toIndex(cursor, 1)) == 1;}
+    protected Address readAddress(int cursor){return new Address(this.readInteger(cursor), this.readShort(cursor + 4));}
 
     /**
-     * Writing data to ByteBuffer with automatic cursor movement
+     * Writing data to ByteBuffer at the given cursor
      */
-    protected void writeInteger(int value){this.data.putInt(value); this.setDirty();}
-    protected void writeLong(long value){this.data.putLong(value); this.setDirty();}
-    protected void writeShort(short value){this.data.putShort(value); this.setDirty();}
-    protected void writeBytes(byte[] value){this.data.put(value); this.setDirty();}
-    protected void writeAddress(Address address){
-        this.data.putInt(address.getPageNumber());
-        this.data.putShort(address.getOffset());
-        this.setDirty();
+    protected void writeInteger(int cursor, int value){this.data.putInt(this.toIndex(cursor, 4), value); this.setDirty();}
+    protected void writeLong(int cursor, long value){this.data.putLong(this.toIndex(cursor, 8), value); this.setDirty();}
+    protected void writeShort(int cursor, short value){this.data.putShort(this.toIndex(cursor, 2), value); this.setDirty();}
+    protected void writeOffset(int cursor, int value){this.writeShort(cursor, (short) value);} // also writes sizes, both fit in 2 unsigned bytes
+    protected void writeBytes(int cursor, byte[] value){this.data.put(this.toIndex(cursor, value.length), value); this.setDirty();}
+    protected void writeAddress(int cursor, Address address){
+        this.writeInteger(cursor, address.getPageNumber());
+        this.writeShort(cursor + 4, address.getOffset());
     }
-    protected void writeBoolean(boolean value){if (value) this.data.put((byte) 1); else this.data.put((byte)0);}
+    protected void writeBoolean(int cursor, boolean value){this.data.put(this.toIndex(cursor, 1), (byte) (value ? 1 : 0)); this.setDirty();}
 
     /**
      *Constructors
@@ -111,50 +157,74 @@ public abstract class Page {
      * @param dataSize if -1 -> dynamic data size
      */
     public Page(short type, short dataSize, int pageNumber){
+        this(type, dataSize, pageNumber, Page.defaultPageSize);
+    }
+
+    public Page(short type, short dataSize, int pageNumber, int pageSize){
         this.pageNumber = pageNumber;
-        this.data = ByteBuffer.allocate(Page.pageSize);
+        this.data = ByteBuffer.allocate(pageSize);
+        this.reformatPage(type, dataSize);
+    }
+
+    /**
+     * Creating a new page over the frame of the page it replaces (freshly allocated or deleted page),
+     * so no new buffer is needed
+     */
+    public Page(short type, short dataSize, Page recycled){
+        this.pageNumber = recycled.getPageNumber();
+        this.data = recycled.getData();
         this.reformatPage(type, dataSize);
     }
 
     /**
      * Creating a page from ByteBuffer (as in case of reading from disk)
      */
-    public Page (ByteBuffer data, short dataSize, int pageNumber){
+    public Page (ByteBuffer data, int dataSize, int pageNumber){
         this.pageNumber = pageNumber;
         this.dataSize = dataSize;
         this.data = data;
+        this.lsn = Page.readLsn(data);
+        if(data.getShort(8) != -1) this.layOutSlots();
     }
 
     /**
      * Same, but for page with dynamic size of elements.
      */
     public Page (ByteBuffer data, int pageNumber){
-        this(data, (short) (Page.freePageSize - 4), pageNumber);
+        this(data, data.capacity() - Page.metaInfoSize - 4, pageNumber);
     }
 
     protected void reformatPage(short type, short dataSize){
+        this.data.put(0, Page.emptyPage, 0, this.data.capacity()); // a recycled frame still holds the previous page
+        this.lsn = 0;
+        int freePageSize = this.getFreePageSize();
         this.setDataSize(dataSize);
-        if(dataSize == -1) this.dataSize = (short) (Page.freePageSize - 4);
-        else this.dataSize = dataSize;
-        this.writeShort(type);
+        this.setType(type);
         this.setNextPage(-1);
-        this.setFirstFree((short) 0);
-        for(int i = 0; i < Page.freePageSize; i+=this.dataSize){
-            if(i + this.dataSize < Page.freePageSize){
-                short nextFree = (short)  (i + this.dataSize);
-                this.setCursor(i);
-                this.writeShort(nextFree);
-                this.writeShort(this.dataSize);
-            }else if(i + 4 <= Page.freePageSize){
-                this.setCursor(i);
-                this.writeShort((short) -1);
-                this.writeShort((short) (Page.freePageSize - i));
+        if(dataSize != -1){
+            this.dataSize = dataSize;
+            this.setFirstFree(-1); // slots are tracked by the bitmap, which is cleared with the page
+            this.layOutSlots();
+            return;
+        }
+        this.dataSize = freePageSize - 4;
+        this.slotCount = 0;
+        this.bitmapWords = 0;
+        this.dataStart = Page.metaInfoSize;
+        this.setFirstFree(0);
+        for(int i = 0; i < freePageSize; i+=this.dataSize){
+            if(i + this.dataSize < freePageSize){
+                int nextFree = i + this.dataSize;
+                this.writeOffset(i, nextFree);
+                this.writeOffset(i + 2, this.dataSize);
+            }else if(i + 4 <= freePageSize){
+                this.writeOffset(i, -1);
+                this.writeOffset(i + 2, freePageSize - i);
                 return;
             }else{
                 i -= this.dataSize;
-                this.setCursor(i);
-                this.writeShort((short) -1);
-                this.writeShort((short) (Page.freePageSize - i));
+                this.writeOffset(i, -1);
+                this.writeOffset(i + 2, freePageSize - i);
                 return;
             }
         }
@@ -192,38 +262,34 @@ public abstract class Page {
 //        return -1;
 //    }
 
-    protected short getNextFreeOffset(int sizeNeeded) {
-        short freeOffset = this.getFirstFree(); // 0
-        if (freeOffset < 0 || freeOffset + 4 > Page.freePageSize) return -1;
-        short prevOffset = -1;
+    protected int getNextFreeOffset(int sizeNeeded) {
+        int freePageSize = this.getFreePageSize();
+        int freeOffset = this.getFirstFree(); // 0
+        if (freeOffset < 0 || freeOffset + 4 > freePageSize) return -1;
+        int prevOffset = -1;
         while (freeOffset != -1) {
-            if (freeOffset + 4 > Page.freePageSize) return -1;
-            this.setCursor(freeOffset);
-            short nextFree = this.readShort();
-            short thisFreeSize = this.readShort();
+            if (freeOffset + 4 > freePageSize) return -1;
+            int nextFree = this.readOffset(freeOffset);
+            int thisFreeSize = this.readSize(freeOffset + 2);
 
             if (thisFreeSize >= sizeNeeded) {
                 if (thisFreeSize >= sizeNeeded + 4) {
-                    this.setCursor(freeOffset + sizeNeeded);
-                    this.writeShort(nextFree);
-                    this.writeShort((short) (thisFreeSize - sizeNeeded));
+                    this.writeOffset(freeOffset + sizeNeeded, nextFree);
+                    this.writeOffset(freeOffset + sizeNeeded + 2, thisFreeSize - sizeNeeded);
 
                     if (prevOffset == -1) {
-                        this.setFirstFree((short) (freeOffset + sizeNeeded));
+                        this.setFirstFree(freeOffset + sizeNeeded);
                     } else {
-                        this.setCursor(prevOffset);
-                        this.writeShort((short) (freeOffset + sizeNeeded));
+                        this.writeOffset(prevOffset, freeOffset + sizeNeeded);
                     }
                 } else {
                     if (prevOffset == -1) {
                         this.setFirstFree(nextFree);
                     } else {
-                        this.setCursor(prevOffset);
-                        this.writeShort(nextFree);
+                        this.writeOffset(prevOffset, nextFree);
                     }
                 }
 
-                this.setCursor(freeOffset);
                 return freeOffset;
             }
             prevOffset = freeOffset;
@@ -237,46 +303,117 @@ public abstract class Page {
      * Function for freeing up space (in case of deleting information)
      * @param offset offset of space that need to be free.
      */
-    protected void releaseOffset(short offset){
-        this.setCursor(offset);
-        short firstFree = this.getFirstFree();
+    protected void releaseOffset(int offset){
+        int firstFree = this.getFirstFree();
         if (firstFree != offset){
-            this.writeShort(firstFree);
-            this.writeShort(this.dataSize);
+            this.writeOffset(offset, firstFree);
+            this.writeOffset(offset + 2, this.dataSize);
             this.setFirstFree(offset);
-        }else this.setCursor(offset + 4);
+        }
     }
-    protected void releaseOffset(short offset, short customDataSize){
+    protected void releaseOffset(int offset, int customDataSize){
 //        System.out.println("Free " +  offset + " with size "+ customDataSize);
         this.dataSize = customDataSize;
         this.releaseOffset(offset);
     }
 
     /**
-     * Function for finding all offsets that are in use
-     * @return
+     * Places the bitmap and the slots of a fixed-width page: as many slots as fit with one bit each
      */
-    protected short[] getAllNotFreeOffsets(){
-        boolean[] freeOffsets = new boolean[this.getOnPageObjectNumber()];
-        for(int i = this.getFirstFree(); i > -1; this.setCursor(i), i = this.readShort()) {
-            this.setCursor(i + 2);
-            if (this.readShort() == this.dataSize) {
-                freeOffsets[i / this.dataSize] = true;
-            }
+    private void layOutSlots(){
+        int freePageSize = this.getFreePageSize();
+        int slots = freePageSize * 8 / (this.dataSize * 8 + 1);
+        while(slots * this.dataSize + 8 * ((slots + 63) / 64) > freePageSize) slots--;
+        this.slotCount = slots;
+        this.bitmapWords = (slots + 63) / 64;
+        this.dataStart = Page.metaInfoSize + 8 * this.bitmapWords;
+    }
+
+    private long bitmapWord(int word){return this.data.getLong(Page.metaInfoSize + 8 * word);}
+    private void setBitmapWord(int word, long value){this.data.putLong(Page.metaInfoSize + 8 * word, value); this.setDirty();}
+
+    /**
+     * Takes the first empty slot of a fixed-width page
+     * @return index of the slot (its cursor is slot * dataSize) or -1 if the page is full
+     */
+    protected int allocateSlot(){
+        for(int word = 0; word < this.bitmapWords; word++){
+            long used = this.bitmapWord(word);
+            if(used == -1L) continue;
+            int slot = word * 64 + Long.numberOfTrailingZeros(~used);
+            if(slot >= this.slotCount) return -1; // bits past the last slot are never set
+            this.setBitmapWord(word, used | (1L << slot));
+            return slot;
         }
-        int notFreeCount = 0;
-        for (boolean freeOffset : freeOffsets) {
-            if (!freeOffset) {
-                notFreeCount++;
+        return -1;
+    }
+
+    /**
+     * Gives the slot back, its content is left as it is
+     */
+    protected void releaseSlot(int slot){
+        int word = slot >>> 6;
+        this.setBitmapWord(word, this.bitmapWord(word) & ~(1L << slot));
+    }
+
+    protected boolean isSlotUsed(int slot){
+        return slot >= 0 && slot < this.slotCount && (this.bitmapWord(slot >>> 6) & (1L << slot)) != 0;
+    }
+
+    /**
+     * Visits the used slots of a fixed-width page in order, a bitmap word at a time, so free slots cost nothing
+     */
+    protected PrimitiveIterator.OfInt usedSlots(){
+        return new PrimitiveIterator.OfInt() {
+            private int word = -1;
+            private long remaining = 0; // used slots of the current word not visited yet
+
+            @Override
+            public boolean hasNext(){
+                while(this.remaining == 0){
+                    if(++this.word >= Page.this.bitmapWords) return false;
+                    this.remaining = Page.this.bitmapWord(this.word);
+                }
+                return true;
             }
-        }
-        short[] result = new short[notFreeCount];
-        int count = 0;
-        for(short i = 0; i < freeOffsets.length; i++) {
-            if (!freeOffsets[i]) {
-                result[count++] = i;
+
+            @Override
+            public int nextInt(){
+                if(!this.hasNext()) throw new NoSuchElementException();
+                int slot = this.word * 64 + Long.numberOfTrailingZeros(this.remaining);
+                this.remaining &= this.remaining - 1;
+                return slot;
             }
-        }
+        };
+    }
+
+    /**
+     * @return false for a fixed-width page whose slots are all free, a scan can skip it
+     */
+    public boolean hasUsedSlots(){
+        for(int word = 0; word < this.bitmapWords; word++) if(this.bitmapWord(word) != 0) return true;
+        return false;
+    }
+
+    protected int getUsedSlotCount(){
+        int count = 0;
+        for(int word = 0; word < this.bitmapWords; word++) count += Long.bitCount(this.bitmapWord(word));
+        return count;
+    }
+
+    /**
+     * @return slots left on a fixed-width page, 0 for the other pages
+     */
+    public int getFreeSlotCount(){return this.slotCount - this.getUsedSlotCount();}
+
+    /**
+     * Function for finding all slots that are in use
+     * @return their indexes
+     */
+    protected short[] getAllNotFreeOffsets(){
+        short[] result = new short[this.getUsedSlotCount()];
+        int count = 0;
+        for(PrimitiveIterator.OfInt slots = this.usedSlots(); slots.hasNext(); ) result[count++] = (short) slots.nextInt();
         return result;
     }
 
@@ -302,13 +439,8 @@ public abstract class Page {
         return metaInfo;
     }
     protected StringBuilder[] addingFreeSpace(int maxLength, StringBuilder[] rows) {
-        for (int i = this.getFirstFree(); i > -1; this.setCursor(i), i = this.readShort()) {
-            this.setCursor(i);
-            StringBuilder builder = new StringBuilder();
-            builder.append("│ Free: Next ").append(this.readShort());
-            builder.append(" Size ").append(this.readShort()).append(" ");
-            if (builder.length() > maxLength) maxLength = builder.length();
-            rows[this.getIndexByOffset(i)] = builder;
+        for (int slot = 0; slot < this.slotCount; slot++) {
+            if (!this.isSlotUsed(slot)) rows[slot] = new StringBuilder("│ Free ");
         }
         return  rows;
     }
@@ -4,6 +4,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.PrimitiveIterator;
 
 import Exceptions.StorageOperationException;
 import NewQuery.Condition;
@@ -30,6 +31,7 @@ public class StringPage extends Page implements BackLinkPage<String> {
     public StringPage(int pageNumber) {
         super(StringPage.type, StringPage.totalSize, pageNumber);
     }
+    public StringPage(FreePage freePage) {super(StringPage.type, StringPage.totalSize, freePage);}
     public StringPage(ByteBuffer data, int pageNumber){super(data,StringPage.totalSize, pageNumber);}
 
     private void validateIndex(int index){
@@ -48,23 +50,22 @@ public class StringPage extends Page implements BackLinkPage<String> {
     @Override
     public String get(short index) {
         this.validateIndex(index);
-        this.setCursor(index*(StringPage.totalSize)+ StringPage.metaInfoSize);
-        byte[] bytes = this.readBytes(StringPage.stringSize);
+        byte[] bytes = this.readBytes(index*StringPage.totalSize + StringPage.metaInfoSize, StringPage.stringSize);
         return new String(bytes, StandardCharsets.UTF_8).trim();
     }
 
     public Object[] getStringByIndexWithMeta(int index) {
         this.validateIndex(index);
-        this.setCursor(index*(StringPage.totalSize));
-        Address address = this.readAddress();
-        byte[] bytes = this.readBytes(StringPage.stringSize);
+        int cursor = index*StringPage.totalSize;
+        Address address = this.readAddress(cursor);
+        byte[] bytes = this.readBytes(cursor + StringPage.metaInfoSize, StringPage.stringSize);
         return new Object[] {address, new String(bytes, StandardCharsets.UTF_8).trim()}; // 0 element - address, 1 element String value
     }
 
     public Address[] searchString(String value){
         ArrayList<Address> returnAddressesList = new ArrayList<>();
-        for(int i = 0; i < this.getOnPageObjectNumber(); i++){
-            Object[] stringWithMetaInfo = this.getStringByIndexWithMeta(i);
+        for(PrimitiveIterator.OfInt slots = this.usedSlots(); slots.hasNext(); ){
+            Object[] stringWithMetaInfo = this.getStringByIndexWithMeta(slots.nextInt());
             if(((String) stringWithMetaInfo[1]).equals(value))
                 returnAddressesList.add((Address) stringWithMetaInfo[0]);
         }
@@ -77,8 +78,8 @@ public class StringPage extends Page implements BackLinkPage<String> {
         String operator = condition.operator();
         String value = (String) condition.value();
 
-        for (int i = 0; i < this.getOnPageObjectNumber(); i++) {
-            Object[] stringWithMetaInfo = this.getStringByIndexWithMeta(i);
+        for (PrimitiveIterator.OfInt slots = this.usedSlots(); slots.hasNext(); ) {
+            Object[] stringWithMetaInfo = this.getStringByIndexWithMeta(slots.nextInt());
             String data = (String) stringWithMetaInfo[1];
             Address address = (Address) stringWithMetaInfo[0];
             if(StringPage.applyCondition(data, operator, value))
@@ -102,20 +103,20 @@ public class StringPage extends Page implements BackLinkPage<String> {
     public short add(String string, Address objectAddress) {
         byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
         this.validateSize(bytes);
-        short freeAddress = this.getNextFreeOffset(StringPage.totalSize);
-        if (freeAddress < 0) return -1;
-        this.writeAddress(objectAddress);
-        this.writeBytes(bytes);
-        return getIndexByOffset(freeAddress);
+        int slot = this.allocateSlot();
+        if (slot < 0) return -1;
+        this.writeAddress(slot*StringPage.totalSize, objectAddress);
+        this.writeBytes(slot*StringPage.totalSize + StringPage.metaInfoSize, bytes);
+        return (short) slot;
     }
 
     @Override
     public void delete(short index) {
         this.validateIndex(index);
-        this.releaseOffset((short) (index*(StringPage.totalSize)));
+        this.releaseSlot(index);
         byte[] bytesToWrite = new byte[StringPage.stringSize];
         Arrays.fill(bytesToWrite, (byte) 0x20);
-        this.writeBytes(bytesToWrite);
+        this.writeBytes(index*StringPage.totalSize + StringPage.metaInfoSize, bytesToWrite);
     }
 
     @Override
@@ -127,23 +128,19 @@ public class StringPage extends Page implements BackLinkPage<String> {
     @Override
     public void replaceSamePlace(short index, String string) {
         this.validateIndex(index);
-        Address objectAddress = (Address) this.getStringByIndexWithMeta(index)[0];
         byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
         this.validateSize(bytes);
-        this.setCursor(index*(StringPage.totalSize));
-        this.writeAddress(objectAddress);
-        this.writeBytes(bytes);
+        this.writeBytes(index*StringPage.totalSize + StringPage.metaInfoSize, bytes); // the address of the object stays
     }
 
     @Override
     public String toString() {
         StringBuilder[] rows = new StringBuilder[this.getOnPageObjectNumber() + 1];
         int maxLength = 0;
-        this.setCursor(0);
         for(short i = 0; i < rows.length-1; i++){
             StringBuilder builder = new StringBuilder();
             builder.append("│ ");
-            builder.append(this.readAddress()).append(" ");
+            builder.append(this.readAddress(i*StringPage.totalSize)).append(" ");
             builder.append(this.get(i));
             if(builder.length() > maxLength) maxLength = builder.length();
             rows[i] = builder;
@@ -92,6 +92,8 @@ public class TransactionServer {
             for (Thread thread : executorThreads) {
                 thread.join(1000);
             }
+
+            this.pageManager.memoryManager.close();
         } catch (Exception e) {
             System.err.println("Error when stopping the server: " + e.getMessage());
         }
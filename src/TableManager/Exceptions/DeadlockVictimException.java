@@ -0,0 +1,7 @@
+package TableManager.Exceptions;
+
+public class DeadlockVictimException extends TableManagementException {
+    public DeadlockVictimException(String message) {
+        super(message);
+    }
+}
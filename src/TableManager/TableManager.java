@@ -1,9 +1,13 @@
 package TableManager;
 
 import Pages.Interface.BackLinkPage;
+import Pages.Interface.DataPage;
 import NewQuery.Condition;
+import TableManager.Exceptions.DeadlockVictimException;
 import TableManager.Exceptions.TableAlreadyExistException;
 import TableManager.Exceptions.TableManagementException;
+import PageManager.FreeSpaceMap;
+import PageManager.MemoryManager;
 import PageManager.PageManager;
 import Pages.*;
 import java.util.*;
@@ -26,8 +30,10 @@ public class TableManager {
      *  Constructor
      */
     private final PageManager pageManager;
+    private final FreeSpaceMap freeSpace;
     public TableManager(PageManager pageManager) {
         this.pageManager = pageManager;
+        this.freeSpace = pageManager.getFreeSpaceMap();
     }
     private final Map<Integer, Page> acquiredPages = new HashMap<>();
 
@@ -35,58 +41,84 @@ public class TableManager {
      * Table lookup functions
      */
     public TableDescription searchTable(String tableName) {
-        try {
-            MetaPage metaPage = (MetaPage) this.acquirePage(1);
-            return this.searchTable(tableName, metaPage);
-        } finally {
-            this.releaseAllPages();
+        while (true) {
+            try {
+                MetaPage metaPage = (MetaPage) this.acquireSharedPage(1);
+                return this.searchTable(tableName, metaPage, true);
+            } catch (DeadlockVictimException e) {
+                // nothing was changed, the search starts again once its pages are released
+            } finally {
+                this.releaseAllPages();
+            }
         }
     }
 
-    private TableDescription searchTable(String tableName, MetaPage metaPage){
+    /**
+     * @param shared the meta pages after the first one are taken in shared mode, like the first one
+     */
+    private TableDescription searchTable(String tableName, MetaPage metaPage, boolean shared){
         TableDescription table;
         MetaPage pageToUse = metaPage;
         while(pageToUse != null){
             table = pageToUse.getClassByName(tableName);
-            if(table != null) return table;
             int nextPageIndex = pageToUse.getNextPage();
             if(pageToUse != metaPage) this.releasePage(pageToUse);
-            pageToUse = (nextPageIndex != -1) ? (MetaPage) this.acquirePage(nextPageIndex) : null;
+            if(table != null) return table;
+            pageToUse = (nextPageIndex != -1) ? (MetaPage) this.acquirePage(nextPageIndex, false, shared) : null;
         }
         return null;
     }
 
+    /**
+     * Reads the description of a table, the meta pages are taken in shared mode and given back
+     */
     private TableDescription getTableByNameWithRelease(String tableName){
-        MetaPage metaPage = (MetaPage) this.acquirePage(1);
+        MetaPage metaPage = (MetaPage) this.acquireSharedPage(1);
         if(metaPage == null) throw new TableManagementException("Data base file is not properly created");
-        TableDescription result = this.searchTable(tableName, metaPage);
+        TableDescription result = this.searchTable(tableName, metaPage, true);
         if(result == null) throw new TableManagementException("Table with provided name is not found");
         this.releasePage(metaPage);
         return result;
     }
 
     /**
-     *  Function for finding free space on the objects page for an object or allocating a new one
+     *  Function for finding free space on the objects page for an object or allocating a new one.
+     *  The free-space map leads to a page with room, the chain is only walked from its last known page
      */
-    private Address insertToFreeObjectPlace(ObjectPage objectPage){
-        int index = objectPage.allocate();
-        if (index > -1) return new Address(objectPage.getPageNumber(), index);
-        while (objectPage.getNextPage() != -1) {
-            ObjectPage tempObjectPage = (ObjectPage) this.acquirePage(objectPage.getNextPage());
-            this.releasePage(objectPage);
-            objectPage = tempObjectPage;
+    private Address insertToFreeObjectPlace(ObjectPage firstPage){
+        int chain = firstPage.getPageNumber(); // the first page is held, nobody else inserts into the chain
+        ObjectPage objectPage;
+        int index;
+        for (int candidate; (candidate = this.freeSpace.pageWithRoom(chain)) != -1; ) {
+            objectPage = (ObjectPage) this.acquirePage(candidate);
+            index = objectPage.allocate();
+            this.freeSpace.update(chain, candidate, objectPage.getFreeSlotCount());
+            if (index > -1) return new Address(candidate, index);
+            if (candidate != chain) this.releasePage(objectPage);
+        }
+
+        objectPage = (ObjectPage) this.acquirePage(this.freeSpace.getTail(chain));
+        while (true) { // from the last known page on, the map may not know the chain yet
             index = objectPage.allocate();
+            this.freeSpace.update(chain, objectPage.getPageNumber(), objectPage.getFreeSlotCount());
             if (index > -1) return new Address(objectPage.getPageNumber(), index);
+            if (objectPage.getNextPage() == -1) break;
+            ObjectPage tempObjectPage = (ObjectPage) this.acquirePage(objectPage.getNextPage());
+            if (objectPage.getPageNumber() != chain) this.releasePage(objectPage);
+            objectPage = tempObjectPage;
+            this.freeSpace.setTail(chain, objectPage.getPageNumber());
         }
 
-        FreePage newFreePage = (FreePage) this.acquirePage(-1);
+        FreePage newFreePage = (FreePage) this.acquirePage(MemoryManager.chainPageIndex(chain));
         if(newFreePage == null) throw new TableManagementException("Page can't be allocated");
 
         int newPageNumber = newFreePage.getPageNumber();
-        ObjectPage newObjectPage = new ObjectPage(objectPage.getObjectLength(), newPageNumber);
+        ObjectPage newObjectPage = new ObjectPage(objectPage.getObjectLength(), newFreePage);
         objectPage.setNextPage(newPageNumber);
         this.pageManager.exchangePage(newFreePage, newObjectPage);
         index = newObjectPage.allocate();
+        this.freeSpace.setTail(chain, newPageNumber);
+        this.freeSpace.update(chain, newPageNumber, newObjectPage.getFreeSlotCount());
         return  new Address(newPageNumber, index);
     }
 
@@ -101,58 +133,73 @@ public class TableManager {
 
         FreePage newPage = (FreePage) this.acquirePage(-1);
         if(newPage == null) throw new TableManagementException("Page can't be allocated");
-        MetaPage newMetaPage = new MetaPage(newPage.getPageNumber());
+        MetaPage newMetaPage = new MetaPage(newPage);
         metaPage.setNextPage(newPage.getPageNumber());
         this.pageManager.exchangePage(newPage, newMetaPage);
         offset = newMetaPage.add(newTable);
         if(offset == -1) throw new TableManagementException("Object description is to long to be  inserted");
     }
 
-    private <T> Address insertIntoBackLinkPage(BackLinkPage<T> page, T value, Address backAddress, Function<Integer, BackLinkPage<T>> pageCreator){
-        short index = page.add(value, backAddress);
-        if(index > -1) return new Address(page.getPageNumber(), index);
-        while (page.getNextPage() != -1){
-            BackLinkPage<T> tempPage = (BackLinkPage<T>) this.acquirePage(page.getNextPage());
-            this.releasePage((Page) page);
-            page = tempPage;
+    private <T> Address insertIntoBackLinkPage(BackLinkPage<T> firstPage, T value, Address backAddress, Function<FreePage, BackLinkPage<T>> pageCreator){
+        int chain = firstPage.getPageNumber();
+        BackLinkPage<T> page;
+        short index;
+        for (int candidate; (candidate = this.freeSpace.pageWithRoom(chain)) != -1; ) {
+            page = this.acquireValuePage(candidate);
             index = page.add(value, backAddress);
+            this.freeSpace.update(chain, candidate, ((Page) page).getFreeSlotCount());
+            if(index > -1) return new Address(candidate, index);
+            if(candidate != chain) this.releasePage((Page) page);
+        }
+
+        page = this.acquireValuePage(this.freeSpace.getTail(chain));
+        while (true){
+            index = page.add(value, backAddress);
+            this.freeSpace.update(chain, page.getPageNumber(), ((Page) page).getFreeSlotCount());
             if(index > -1) return new Address(page.getPageNumber(), index);
+            if(page.getNextPage() == -1) break;
+            BackLinkPage<T> tempPage = this.acquireValuePage(page.getNextPage());
+            if(page.getPageNumber() != chain) this.releasePage((Page) page);
+            page = tempPage;
+            this.freeSpace.setTail(chain, page.getPageNumber());
         }
 
-        FreePage newFreePage = (FreePage) this.acquirePage(-1);
+        FreePage newFreePage = (FreePage) this.acquirePage(MemoryManager.chainPageIndex(chain));
         if(newFreePage == null) throw new TableManagementException("Page can't be allocated");
 
         int newPageNumber = newFreePage.getPageNumber();
-        BackLinkPage<T> newPage = pageCreator.apply(newPageNumber);
+        BackLinkPage<T> newPage = pageCreator.apply(newFreePage);
         page.setNextPage(newPageNumber);
         this.pageManager.exchangePage(newFreePage, (Page) newPage);
         index = newPage.add(value, backAddress);
+        this.freeSpace.setTail(chain, newPageNumber);
+        this.freeSpace.update(chain, newPageNumber, ((Page) newPage).getFreeSlotCount());
         return  new Address(newPageNumber, index);
     }
     private Address insertIntoStringPage(StringPage page, String stringToInsert, Address backAddress) {
         return insertIntoBackLinkPage(page, stringToInsert, backAddress,
-                pageNumber -> new StringPage(pageNumber));
+                freePage -> new StringPage(freePage));
     }
 
     private Address insertIntoLongPage(LongPage page, Long longValue, Address backAddress) {
         return insertIntoBackLinkPage(page, longValue, backAddress,
-                pageNumber -> new LongPage(pageNumber));
+                freePage -> new LongPage(freePage));
     }
 
     private Address insertIntoBoolPage(BooleanPage page, Boolean boolValue, Address backAddress) {
         return insertIntoBackLinkPage(page, boolValue, backAddress,
-                pageNumber -> new BooleanPage(pageNumber));
+                freePage -> new BooleanPage(freePage));
     }
 
 
     /**
      * Value search functions on pages
      */
-    private ArrayList<Address> searchForAddresses(Page firstPage, Condition condition){
+    private ArrayList<Address> searchForAddresses(Page firstPage, Condition condition, boolean shared){
         ArrayList<Address> returnAddresses = new ArrayList<>();
         Page page = firstPage;
         while (page != null) {
-            switch (page.getType()) {
+            if (page.hasUsedSlots()) switch (page.getType()) { // pages emptied by deletes are only followed
                 case 2:
                     returnAddresses.addAll(((StringPage) page).search(condition)); break;
                 case 3:
@@ -162,7 +209,7 @@ public class TableManager {
                 default: throw new TableManagementException("Unknown set type: " + page.getType());
             }
             int nextPageIndex = page.getNextPage();
-            page = (nextPageIndex != -1) ? (Page) this.acquirePage(nextPageIndex) : null;
+            page = (nextPageIndex != -1) ? this.acquireScanPage(nextPageIndex, shared) : null;
         }
         return returnAddresses;
     }
@@ -171,14 +218,22 @@ public class TableManager {
      * Function to restore object
      */
 
-    private Map<String, Object> restoreObject(TableDescription classThatWeTryToRestore, Address objectPageAddress){
-        ObjectPage objectPage = (ObjectPage) this.acquirePage(objectPageAddress.getPageNumber());
+    /**
+     * @param shared the pages are taken in shared mode, for an object that is only read
+     */
+    private Map<String, Object> restoreObject(TableDescription classThatWeTryToRestore, Address objectPageAddress, boolean shared){
+        return this.restoreObject(classThatWeTryToRestore, objectPageAddress, false, shared);
+    }
+
+    private Map<String, Object> restoreObject(TableDescription classThatWeTryToRestore, Address objectPageAddress, boolean sequentialScan, boolean shared){
+        ObjectPage objectPage = (ObjectPage) this.acquirePage(objectPageAddress.getPageNumber(), sequentialScan, shared);
         Address[] addresses = objectPage.get(objectPageAddress.getOffset());
+        Map<Integer, Page> attributePages = this.acquireAttributePages(addresses, sequentialScan, shared);
 
         Map<String, Object> returnMap = new HashMap<>();
         for(int i = 0; i < addresses.length; i++) {
             if (!addresses[i].isNull()) {
-                Page oneOfNeededPage = this.acquirePage(addresses[i].getPageNumber());
+                Page oneOfNeededPage = attributePages.get(addresses[i].getPageNumber());
                 switch (oneOfNeededPage.getType()) {
                     case 2:
                         StringPage stringPage = (StringPage) oneOfNeededPage;
@@ -191,6 +246,7 @@ public class TableManager {
                     case 4:
                         BooleanPage booleanPage = (BooleanPage) oneOfNeededPage;
                         returnMap.put(classThatWeTryToRestore.getAttributeName(i), booleanPage.get(addresses[i].getOffset()));
+                        break;
                     default:
                         throw new TableManagementException("I don't know how page of type " + oneOfNeededPage.getType() + " was found here");
                 }
@@ -204,9 +260,9 @@ public class TableManager {
         while(objectPage != null){
             Address[] addresses = objectPage.getAllObjectAddresses();
             for(Address address : addresses)
-                returnList.add(this.restoreObject(classThatWeTryToRestore, address));
+                returnList.add(this.restoreObject(classThatWeTryToRestore, address, true, true));
             int nextPageIndex = objectPage.getNextPage();
-            objectPage = (nextPageIndex != -1) ?  (ObjectPage) this.acquirePage(nextPageIndex) : null;
+            objectPage = (nextPageIndex != -1) ?  (ObjectPage) this.acquireScanPage(nextPageIndex, true) : null;
         }
         return returnList;
     }
@@ -215,13 +271,18 @@ public class TableManager {
      * Function to delete object
      */
     private void deleteObject(Address objectPageAddress){
-        ObjectPage objectPage = (ObjectPage) this.acquirePage(objectPageAddress.getPageNumber());
+        this.deleteObject(objectPageAddress, false);
+    }
+
+    private void deleteObject(Address objectPageAddress, boolean sequentialScan){
+        ObjectPage objectPage = (ObjectPage) this.acquirePage(objectPageAddress.getPageNumber(), sequentialScan, false);
         Address[] addresses = objectPage.get(objectPageAddress.getOffset());
         boolean[] alreadyDeleted = new boolean[addresses.length];
         try {
+            Map<Integer, Page> attributePages = this.acquireAttributePages(addresses, sequentialScan, false);
             for (int i = 0; i < addresses.length; i++) {
                 if (!addresses[i].isNull()) {
-                    Page oneOfNeededPage = this.acquirePage(addresses[i].getPageNumber());
+                    Page oneOfNeededPage = attributePages.get(addresses[i].getPageNumber());
                     switch (oneOfNeededPage.getType()) {
                         case 2 -> {
                             StringPage stringPage = (StringPage) oneOfNeededPage;
@@ -238,9 +299,13 @@ public class TableManager {
                         default ->
                                 throw new TableManagementException("I don't know how page of type " + oneOfNeededPage.getType());
                     }
+                    this.freeSpace.updatePage(oneOfNeededPage.getPageNumber(), oneOfNeededPage.getFreeSlotCount());
                 }
                 alreadyDeleted[i] = true;
             } objectPage.delete(objectPageAddress.getOffset());
+            this.freeSpace.updatePage(objectPage.getPageNumber(), objectPage.getFreeSlotCount());
+        } catch (DeadlockVictimException e) {
+            throw e; // given up before anything was deleted
         } catch (Exception e) {
             for(int i = 0; i < alreadyDeleted.length; i++){
                 if(alreadyDeleted[i]){
@@ -254,9 +319,9 @@ public class TableManager {
         while(objectPage != null){
             Address[] addresses = objectPage.getAllObjectAddresses();
             for(Address address : addresses)
-                this.deleteObject(address);
+                this.deleteObject(address, true);
             int nextPageIndex = objectPage.getNextPage();
-            objectPage =  (nextPageIndex != -1) ? (ObjectPage) this.acquirePage(nextPageIndex) : null;
+            objectPage =  (nextPageIndex != -1) ? (ObjectPage) this.acquireScanPage(nextPageIndex, false) : null;
         }
     }
 
@@ -270,11 +335,11 @@ public class TableManager {
             MetaPage metaPage = (MetaPage) this.acquirePage(1);
             if (metaPage == null) throw new TableManagementException("Data base file is not properly created");
 
-            if (this.searchTable(newTable.getName(), metaPage) != null)
+            if (this.searchTable(newTable.getName(), metaPage, false) != null)
                 throw new TableAlreadyExistException("Table already exists");
             FreePage newPage = (FreePage) this.acquirePage(-1);
             if (newPage == null) throw new TableManagementException("Object page can't be allocated");
-            ObjectPage objectPage = new ObjectPage((short) newTable.getAttributeNumber(), newPage.getPageNumber());
+            ObjectPage objectPage = new ObjectPage((short) newTable.getAttributeNumber(), newPage);
             this.pageManager.exchangePage(newPage, objectPage);
             newTable.setObjectPage(objectPage.getPageNumber());
             int[] newPages = new int[newTable.getAttributeNumber()];
@@ -293,17 +358,17 @@ public class TableManager {
                 switch (type) {
                     case "string" -> {
                         oldPage = pages.get(i);
-                        StringPage stringPage = new StringPage(pageNumber);
+                        StringPage stringPage = new StringPage((FreePage) oldPage);
                         this.pageManager.exchangePage(oldPage, stringPage);
                     }
                     case "integer", "int", "long" ->{
                         oldPage = pages.get(i);
-                        LongPage longPage = new LongPage(pageNumber);
+                        LongPage longPage = new LongPage((FreePage) oldPage);
                         this.pageManager.exchangePage(oldPage, longPage);
                     }
                     case "boolean" -> {
                         oldPage = pages.get(i);
-                        BooleanPage booleanPage = new BooleanPage(pageNumber);
+                        BooleanPage booleanPage = new BooleanPage((FreePage) oldPage);
                         this.pageManager.exchangePage(oldPage, booleanPage);
                     }
                     default -> throw new TableManagementException("Unknown set type: " + newTable.getAttributesTypes()[i]);
@@ -340,6 +405,17 @@ public class TableManager {
      */
 
     public void addObject(TableDescription newTable, Map<String, Object> attributesValues) {
+        while (true) {
+            try {
+                this.addObjectOnce(newTable, attributesValues);
+                return;
+            } catch (DeadlockVictimException e) {
+                // the changes were undone and the pages are released, the insert starts again
+            }
+        }
+    }
+
+    private void addObjectOnce(TableDescription newTable, Map<String, Object> attributesValues) {
         try {
             TableDescription tableOfObject = this.getTableByNameWithRelease(newTable.getName()); //get description of target table
 
@@ -359,9 +435,8 @@ public class TableManager {
             List<Page> acquiredPages = this.acquirePage(pageNeeded);
 
             if(acquiredPages.size() < pageNeeded.length) { //error
-                ObjectPage objectPage = (ObjectPage) this.acquirePage(addressOfNewObject.getPageNumber());
-                objectPage.delete(addressOfNewObject.getOffset());
-                throw new TableManagementException("Attribute page can't be allocated content is too long");
+                this.freeObjectPlace(addressOfNewObject);
+                throw this.notAcquired("Attribute pages");
             }
 
             Map<Integer, Page> acquiredPagesMap = new HashMap<>(acquiredPages.size()); //map -> order ensured
@@ -395,8 +470,16 @@ public class TableManager {
                     }
                     addresses[tableOfObject.getAttributeInternalIndexByName(newTable.getAttributeName(i))] = address;
                 }
-            }  catch (Exception e) {
-                // here we need to add rollback code for all changed pages
+            }  catch (RuntimeException e) {
+                // the values inserted so far and the object place are removed, their pages are still held
+                for (Address address : addresses) {
+                    if (address != null && !address.isNull()) {
+                        DataPage<?> page = (DataPage<?>) this.heldPage(address.getPageNumber());
+                        page.delete(address.getOffset());
+                        this.freeSpace.updatePage(address.getPageNumber(), ((Page) page).getFreeSlotCount());
+                    }
+                }
+                this.freeObjectPlace(addressOfNewObject);
                 throw e;
             }
 
@@ -405,7 +488,7 @@ public class TableManager {
             }
 
             System.out.println("\n" + addressOfNewObject + "\n");
-            ObjectPage objectPage = (ObjectPage) this.acquirePage(addressOfNewObject.getPageNumber());
+            ObjectPage objectPage = (ObjectPage) this.heldPage(addressOfNewObject.getPageNumber());
             objectPage.insertToIndex(addresses, addressOfNewObject.getOffset());
 
         }finally {this.releaseAllPages();}
@@ -416,22 +499,32 @@ public class TableManager {
      */
 
     public ArrayList<Map<String, Object>> searchObject(TableDescription searchVictim, ArrayList<Condition> conditions) {
+        while (true) {
+            try {
+                return this.searchObjectOnce(searchVictim, conditions);
+            } catch (DeadlockVictimException e) {
+                // nothing was changed and the pages are released, the search starts again
+            }
+        }
+    }
+
+    private ArrayList<Map<String, Object>> searchObjectOnce(TableDescription searchVictim, ArrayList<Condition> conditions) {
         try{
             TableDescription tableOfObject = this.getTableByNameWithRelease(searchVictim.getName()); //get description of target table
             ArrayList<Condition> actualConditions = this.sortingApplicableConditions(tableOfObject, conditions);
 
             if(actualConditions.isEmpty()){
-                return this.restoreAllObjects(tableOfObject, (ObjectPage) this.acquirePage(tableOfObject.getObjectPage()));
+                return this.restoreAllObjects(tableOfObject, (ObjectPage) this.acquireScanPage(tableOfObject.getObjectPage(), true));
             }
 
-            //applying firs condition
+            //applying firs condition, the pages are only read so other searches share them
             Condition fisrtCondition = actualConditions.get(0);
-            Page page = this.acquirePage(tableOfObject.getAttributePageByName(fisrtCondition.attributeName()));
-            ArrayList<Address> addresses = this.searchForAddresses(page, fisrtCondition);
+            Page page = this.acquireScanPage(tableOfObject.getAttributePageByName(fisrtCondition.attributeName()), true);
+            ArrayList<Address> addresses = this.searchForAddresses(page, fisrtCondition, true);
 
             ArrayList<Map<String, Object>> objects = new ArrayList<>();
             for(Address address : addresses){
-                objects.add(this.restoreObject(tableOfObject, address));
+                objects.add(this.restoreObject(tableOfObject, address, true));
             }
 
             //now applying all other conditions
@@ -476,23 +569,34 @@ public class TableManager {
      * Function for deleting objects
      */
     public void deleteObject(TableDescription deleteVictim, ArrayList<Condition> conditions) {
+        while (true) {
+            try {
+                this.deleteObjectOnce(deleteVictim, conditions);
+                return;
+            } catch (DeadlockVictimException e) {
+                // the objects deleted so far are deleted whole, the search finds the others again
+            }
+        }
+    }
+
+    private void deleteObjectOnce(TableDescription deleteVictim, ArrayList<Condition> conditions) {
         try{
             TableDescription tableOfObject = this.getTableByNameWithRelease(deleteVictim.getName()); //get description of target table
             ArrayList<Condition> actualConditions = this.sortingApplicableConditions(tableOfObject, conditions);
 
             if(actualConditions.isEmpty()){
-                this.deleteAllObjects((ObjectPage) this.acquirePage(tableOfObject.getObjectPage()));
+                this.deleteAllObjects((ObjectPage) this.acquireScanPage(tableOfObject.getObjectPage(), false));
                 return;
             }
 
             Condition fisrtCondition = actualConditions.get(0);
-            Page page = this.acquirePage(tableOfObject.getAttributePageByName(fisrtCondition.attributeName()));
-            ArrayList<Address> addresses = this.searchForAddresses(page, fisrtCondition);
+            Page page = this.acquireScanPage(tableOfObject.getAttributePageByName(fisrtCondition.attributeName()), false);
+            ArrayList<Address> addresses = this.searchForAddresses(page, fisrtCondition, false); // the pages are changed next
 
             ArrayList<Address> addressesToDelete = new ArrayList<>();
             ArrayList<Map<String, Object>> objects = new ArrayList<>();
             for(Address address : addresses){
-                objects.add(this.restoreObject(tableOfObject, address));
+                objects.add(this.restoreObject(tableOfObject, address, false));
                 addressesToDelete.add(address);
             }
 
@@ -544,6 +648,17 @@ public class TableManager {
     }
 
     public void deleteTable(TableDescription deleteVictim) {
+        while (true) {
+            try {
+                this.deleteTableOnce(deleteVictim);
+                return;
+            } catch (DeadlockVictimException e) {
+                // nothing was changed, the pages are taken again
+            }
+        }
+    }
+
+    private void deleteTableOnce(TableDescription deleteVictim) {
         try{
             TableDescription tableOfObject = this.getTableByNameWithRelease(deleteVictim.getName()); //get description of target table
             String[] attributes = tableOfObject.getAttributesNames();
@@ -551,8 +666,11 @@ public class TableManager {
             for(String attributeName : attributes){
                 pagesToDelete.addAll(this.getAllPagesToDelete(tableOfObject.getAttributePageByName(attributeName)));
             }
-            this.pageManager.deletePages(pagesToDelete);
+            // the last page that may be given up, the pages are only deleted after it
             this.deleteTableFromMetaPage(deleteVictim.getName());
+            this.pageManager.deletePages(pagesToDelete);
+            this.pageManager.dropChain(tableOfObject.getObjectPage());
+            for(String attributeName : attributes) this.pageManager.dropChain(tableOfObject.getAttributePageByName(attributeName));
         } finally {
             this.releaseAllPages();
         }
@@ -587,10 +705,77 @@ public class TableManager {
     }
 
     private Page acquirePage(int pageNumber){
-        List<Page> result = this.acquirePage(new int[]{pageNumber});
+        return this.acquirePage(pageNumber, false, false);
+    }
+    /**
+     * Page of a chain of attribute values, taken exclusively
+     */
+    @SuppressWarnings("unchecked") // every page of a chain holds values of the type of its first page
+    private <T> BackLinkPage<T> acquireValuePage(int pageNumber){
+        return (BackLinkPage<T>) this.acquirePage(pageNumber);
+    }
+    /**
+     * Page the thread holds already, taken without a request so it can't be given up to a deadlock
+     */
+    private Page heldPage(int pageNumber){
+        for(Page page : this.pageManager.getHeldResources()){
+            if(page.getPageNumber() == pageNumber) return page;
+        }
+        throw new TableManagementException("Page " + pageNumber + " is not held by this thread");
+    }
+    /**
+     * Gives back the place allocated for an object that is not inserted, its object page is held
+     */
+    private void freeObjectPlace(Address address){
+        ObjectPage objectPage = (ObjectPage) this.heldPage(address.getPageNumber());
+        objectPage.delete(address.getOffset());
+        this.freeSpace.updatePage(objectPage.getPageNumber(), objectPage.getFreeSlotCount());
+    }
+    /**
+     * Page that is only read, other threads reading it hold it at the same time
+     */
+    private Page acquireSharedPage(int pageNumber){
+        return this.acquirePage(pageNumber, false, true);
+    }
+    /**
+     * Page reached by walking a whole chain, it is cached without pushing frequently used pages out
+     */
+    private Page acquireScanPage(int pageNumber, boolean shared){
+        return this.acquirePage(pageNumber, true, shared);
+    }
+    private Page acquirePage(int pageNumber, boolean sequentialScan, boolean shared){
+        List<Page> result = this.acquirePage(new int[]{pageNumber}, sequentialScan, shared);
+        if(result.isEmpty()) throw this.notAcquired("Page " + pageNumber);
         return result.get(0);
     }
     private List<Page> acquirePage(int[] pageNumber){
+        return this.acquirePage(pageNumber, false, false);
+    }
+    /**
+     * Pages holding the attributes of an object, asked for together so the missing ones are read at once
+     * @return pages by number, the list given back by acquirePage is not in the order of the request
+     */
+    private Map<Integer, Page> acquireAttributePages(Address[] addresses, boolean sequentialScan, boolean shared){
+        int[] pageNumbers = Arrays.stream(addresses).filter(address -> !address.isNull()).mapToInt(Address::getPageNumber).distinct().toArray();
+        Map<Integer, Page> pages = new HashMap<>();
+        if(pageNumbers.length == 0) return pages;
+        for(Page page : this.acquirePage(pageNumbers, sequentialScan, shared)) pages.put(page.getPageNumber(), page);
+        if(pages.size() < pageNumbers.length) throw this.notAcquired("Attribute pages");
+        return pages;
+    }
+
+    /**
+     * Failure of a request for pages: it was given up to break a deadlock, unless the thread was interrupted
+     */
+    private TableManagementException notAcquired(String pages){
+        if(Thread.currentThread().isInterrupted()) return new TableManagementException(pages + " can't be acquired, the thread was interrupted");
+        return new DeadlockVictimException(pages + " can't be acquired, the request was given up to break a deadlock");
+    }
+    /**
+     * @param shared the pages are only read, in shared mode
+     * @return the pages, an empty list if they could not be obtained (the request was given up to break a deadlock)
+     */
+    private List<Page> acquirePage(int[] pageNumber, boolean sequentialScan, boolean shared){
         List<Integer> pageList = new ArrayList<>();
         List<Page> result = new ArrayList<>();
         for(int number: pageNumber){
@@ -598,22 +783,27 @@ public class TableManager {
             if(page != null) result.add(page);
             else pageList.add(number);
         }
+        List<Page> pages = null;
         if(this.acquiredPages.isEmpty()) { // this.pageManager.getHeldResources().isEmpty() take graph lock, suboptimal
             try {
-                result.addAll(this.pageManager.acquireResources(pageList));
-                return result;
+                pages = this.pageManager.acquireResources(pageList, sequentialScan, shared);
             } catch (InterruptedException e) {
                 e.printStackTrace();
+                Thread.currentThread().interrupt();
+                return new ArrayList<>();
             }
         } else {
             try {
-                result.addAll(this.pageManager.expandResourceZone(pageList));
-                return result;
+                pages = this.pageManager.expandResourceZone(pageList, sequentialScan, shared);
             } catch (InterruptedException e) {
                 e.printStackTrace();
+                Thread.currentThread().interrupt();
+                return new ArrayList<>();
             }
         }
-        return new ArrayList<>();
+        if(pages == null) return new ArrayList<>(); // the request was given up to break a deadlock
+        result.addAll(pages);
+        return result;
     }
 
     private void releasePage(Page page){
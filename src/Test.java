@@ -20,7 +20,8 @@ public class Test {
         deleteObjects(td);
 //        searchObjects(td);
 
-        FilePageLoader loader = new FilePageLoader(dataPath);
+        mm.close();
+        FilePageStore loader = new FilePageStore(dataPath);
         MetaPage metaPage = new MetaPage(loader.load(1), 1);
         System.out.println(metaPage);
 
@@ -32,9 +33,10 @@ public class Test {
 
 
 //
-        ByteBuffer buffer = loader.load(2);
-        ObjectPage objectPage = new ObjectPage(buffer, buffer.getShort(8), 2);
+        ByteBuffer buffer = loader.load(3);
+        ObjectPage objectPage = new ObjectPage(buffer, buffer.getShort(8), 3);
         System.out.println(objectPage);
+        loader.close();
 
 
 //        LongPage page = new LongPage(loader.load(3), 3);